@@ -2,11 +2,13 @@ package ru.itis.client;
 
 import ru.itis.client.ui.ConnectionWindow;
 import ru.itis.client.ui.GameWindow;
+import ru.itis.client.ui.sprites.SpriteManager;
 
 import javax.swing.*;
 
 public class ClientMain {
     public static void main(String[] args) {
+        SpriteManager.preloadAsync();
         SwingUtilities.invokeLater(() -> {
             ConnectionWindow connectionWindow = new ConnectionWindow();
             connectionWindow.setVisible(true);
@@ -1,28 +1,35 @@
 package ru.itis.client;
 
 import ru.itis.client.ui.ConnectionWindow;
-import ru.itis.client.ui.MouseView;
-import ru.itis.model.GameState;
+import ru.itis.protocol.FrameOutputStream;
+import ru.itis.protocol.Frames;
+import ru.itis.protocol.LatencyStats;
 import ru.itis.protocol.Message;
+import ru.itis.protocol.MessageCodec;
 import ru.itis.protocol.MessageType;
+import ru.itis.protocol.StateBuffer;
+import ru.itis.protocol.StateHistory;
 import ru.itis.client.ui.GamePanel;
 import ru.itis.client.ui.GameWindow;
 
 import javax.swing.*;
-import java.awt.*;
 import java.io.*;
 import java.net.Socket;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 
 public class GameClient {
+    private static final boolean VIRTUAL_LISTENER = Boolean.getBoolean("client.virtualThreads");
+    // 0 - сколько пришлет сервер
+    private static final int SEND_RATE = Integer.getInteger("client.sendRate", 0);
+
     private final String host;
     private final int port;
     private Socket socket;
-    private ObjectOutputStream out;
-    private ObjectInputStream in;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private final MessageCodec codec;
     private final AtomicBoolean running = new AtomicBoolean(false);
     private Thread listenerThread;
 
@@ -33,7 +40,19 @@ public class GameClient {
     private String myRole = "pending";
     private final String playerName;
 
-    private final Map<String, PlayerInfo> playersMap = new HashMap<>();
+    private final Map<Integer, PlayerInfo> playersMap = new HashMap<>();
+
+    // Недавние снимки, к которым сервер может прислать дельту; кодек разбирает STATE и дельты прямо в них
+    private static final int BASELINES = 64;
+    private final StateHistory states = new StateHistory(BASELINES);
+    private byte[] readBuffer = new byte[1024];
+    // Подтверждение снимка кодируется в один и тот же буфер
+    private final FrameOutputStream ackFrame = new FrameOutputStream(32);
+
+    // Свой PING отправляем в ответ на серверный, не чаще раза в PING_INTERVAL_NANOS
+    private static final long PING_INTERVAL_NANOS = 1_000_000_000L;
+    private final LatencyStats latency = new LatencyStats();
+    private long lastPingNanos = System.nanoTime() - PING_INTERVAL_NANOS;
 
     private ConnectionWindow connectionWindow;
 
@@ -44,6 +63,16 @@ public class GameClient {
         this.isHost = isHost;
         this.playerName = playerName;
         this.connectionWindow = connectionWindow;
+        this.codec = createCodec();
+    }
+
+    private static MessageCodec createCodec() {
+        boolean serialized = "serialized".equalsIgnoreCase(System.getProperty("client.codec"));
+        try {
+            return MessageCodec.forId(serialized ? MessageCodec.SERIALIZED : MessageCodec.BINARY);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     public void setGameWindow(GameWindow gameWindow) {
@@ -53,12 +82,18 @@ public class GameClient {
     public void connect(String content) {
         try {
             socket = new Socket(host, port);
-            out = new ObjectOutputStream(socket.getOutputStream());
-            in  = new ObjectInputStream(socket.getInputStream());
+            socket.setTcpNoDelay(true);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            in  = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out.writeByte(codec.id());
             running.set(true);
             sendMessage(new Message(MessageType.CONNECT, content));
-            listenerThread = new Thread(this::listenServer);
-            listenerThread.start();
+            if (SEND_RATE > 0) {
+                sendMessage(new Message(MessageType.SET_SEND_RATE, String.valueOf(SEND_RATE)));
+            }
+            listenerThread = VIRTUAL_LISTENER
+                    ? Thread.ofVirtual().name("server-listener").start(this::listenServer)
+                    : Thread.ofPlatform().name("server-listener").start(this::listenServer);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -67,16 +102,24 @@ public class GameClient {
     private void listenServer() {
         while (running.get()) {
             try {
-                Message msg = (Message) in.readObject();
-                if (msg == null) break;
+                int length = in.readInt();
+                Frames.checkLength(length);
+                if (length > readBuffer.length) {
+                    readBuffer = new byte[Math.max(length, readBuffer.length * 2)];
+                }
+                in.readFully(readBuffer, 0, length);
+                Message msg = codec.decode(readBuffer, 0, length, states);
+                if (msg == null) {
+                    handleState();
+                    continue;
+                }
 
                 switch (msg.getType()) {
                     case LOBBY_UPDATE:
                         handleLobbyUpdate(msg.getContent());
                         break;
                     case ASSIGN_ROLE:
-                        myRole = msg.getContent();
-                        System.out.println("[Client] My new role: " + myRole);
+                        handleAssignRole(msg.getContent());
                         break;
                     case START_GAME:
                         handleStartGame();
@@ -84,15 +127,18 @@ public class GameClient {
                     case RESET_LOBBY:
                         handleResetLobby();
                         break;
-                    case STATE:
-                        parseAndUpdateState(msg.getContent());
-                        break;
                     case DISCONNECT:
                         handleDisconnect(msg.getContent());
                         break;
+                    case PING:
+                        handlePing(msg.getContent());
+                        break;
+                    case PONG:
+                        latency.onPong(msg.getContent(), System.nanoTime(), System.currentTimeMillis());
+                        break;
                     default:
                 }
-            } catch (IOException | ClassNotFoundException e) {
+            } catch (IOException e) {
                 String errorMessage = e.getMessage() != null ? e.getMessage() : "Unknown error";
                 System.out.println("Server disconnected or error: " + errorMessage);
                 handleDisconnect("Connection lost: " + errorMessage); // Закрываем окно при разрыве соединения
@@ -115,9 +161,18 @@ public class GameClient {
         });
     }
 
+    private void handlePing(String content) {
+        sendMessage(new Message(MessageType.PONG, LatencyStats.pongContent(content, System.currentTimeMillis())));
+        long now = System.nanoTime();
+        if (now - lastPingNanos >= PING_INTERVAL_NANOS) {
+            lastPingNanos = now;
+            sendMessage(new Message(MessageType.PING, LatencyStats.pingContent(now)));
+        }
+    }
+
     private void handleLobbyUpdate(String content) {
         System.out.println("[Client] LOBBY_UPDATE -> " + content);
-        Map<String, PlayerInfo> newMap = parseLobbyData(content);
+        Map<Integer, PlayerInfo> newMap = parseLobbyData(content);
         playersMap.clear();
         playersMap.putAll(newMap);
 
@@ -132,8 +187,8 @@ public class GameClient {
         }
     }
 
-    private Map<String, PlayerInfo> parseLobbyData(String content) {
-        Map<String, PlayerInfo> result = new HashMap<>();
+    private Map<Integer, PlayerInfo> parseLobbyData(String content) {
+        Map<Integer, PlayerInfo> result = new HashMap<>();
 
         String[] parts = content.split(";");
         boolean playersSection = false;
@@ -153,7 +208,12 @@ public class GameClient {
             if (e.isBlank()) continue;
             String[] arr = e.split("\\|");
             if (arr.length != 2) continue;
-            String cId = arr[0];
+            int cId;
+            try {
+                cId = Integer.parseInt(arr[0]);
+            } catch (NumberFormatException ex) {
+                continue;
+            }
             String nameAndRole = arr[1];
 
             String[] nr = nameAndRole.split(",");
@@ -167,6 +227,24 @@ public class GameClient {
     }
 
 
+    // content = "mouse|7": роль и id, под которым сервер знает этого игрока
+    private void handleAssignRole(String content) {
+        String[] arr = content.split("\\|");
+        myRole = arr[0];
+        int myId = -1;
+        if (arr.length > 1) {
+            try {
+                myId = Integer.parseInt(arr[1]);
+            } catch (NumberFormatException e) {
+                myId = -1;
+            }
+        }
+        System.out.println("[Client] My new role: " + myRole + " (id " + myId + ")");
+        if (gamePanel != null) {
+            gamePanel.setLocalPlayer(myRole, myId);
+        }
+    }
+
     private void handleStartGame() {
         gameStarted = true;
         if (gamePanel != null) {
@@ -186,78 +264,44 @@ public class GameClient {
         }
     }
 
-    private void parseAndUpdateState(String content) {
-        boolean gOver = false;
-        String winner = "none";
-        int catX = GameState.WIDTH / 2;
-        int catY = GameState.HEIGHT / 2;
-        int catVelX = 0, catVelY = 0;
-        var newMice = new ConcurrentHashMap<String, MouseView>();
-        var cheesePts = new ArrayList<Point>();
-        var holePts = new ArrayList<Point>();
-
-        String[] parts = content.split(";");
-        for (String part : parts) {
-            if (part.startsWith("GAMEOVER|")) {
-                String val = part.substring("GAMEOVER|".length());
-                String[] arr = val.split(",");
-                if (arr.length == 2) {
-                    gOver = Boolean.parseBoolean(arr[0]);
-                    winner = arr[1];
-                }
-            } else if (part.startsWith("CAT|")) {
-                String coords = part.substring("CAT|".length());
-                String[] xy = coords.split(",");
-                catX = Integer.parseInt(xy[0]);
-                catY = Integer.parseInt(xy[1]);
-                catVelX = Integer.parseInt(xy[2]);
-                catVelY = Integer.parseInt(xy[3]);
-            } else if (part.startsWith("MOUSE|")) {
-                String data = part.substring("MOUSE|".length());
-                String[] arr = data.split(",");
-                if (arr.length == 9) {
-                    String mid = arr[0];
-                    int mx = Integer.parseInt(arr[1]);
-                    int my = Integer.parseInt(arr[2]);
-                    int mvx = Integer.parseInt(arr[3]);
-                    int mvy = Integer.parseInt(arr[4]);
-                    boolean alive = Boolean.parseBoolean(arr[5]);
-                    boolean carrying = Boolean.parseBoolean(arr[6]);
-                    int sc = Integer.parseInt(arr[7]);
-                    boolean lastFacingLeft = Boolean.parseBoolean(arr[8]);
-                    newMice.put(mid, new MouseView(mx, my, mvx, mvy, alive, carrying, sc, lastFacingLeft));
-                }
-            } else if (part.startsWith("CHEESE|")) {
-                // Обработка всех сыров
-                String cData = part.substring("CHEESE|".length());
-                parse(cheesePts, cData);
-            } else if (part.startsWith("HOLES|")) {
-                // Обработка всех нор
-                String hData = part.substring("HOLES|".length());
-                parse(holePts, hData);
-            }
+    // STATE или STATE_DELTA уже разобраны в states
+    private void handleState() {
+        switch (states.lastResult()) {
+            case ACCEPTED:
+                acceptState(states.latest());
+                break;
+            case NO_BASELINE:
+                // Базы уже нет - просим полный снимок
+                sendMessage(new Message(MessageType.STATE_ACK, "-1"));
+                break;
+            default:
         }
+    }
 
-        gamePanel.updateState(gOver, winner, catX, catY, catVelX, catVelY, newMice, cheesePts, holePts);
+    private void acceptState(StateBuffer state) {
+        gamePanel.updateState(state);
+        // Вместе с подтверждением сообщаем, какой тик на экране: по нему сервер компенсирует задержку кота
+        sendStateAck(state.seq, gamePanel.getViewTick());
     }
 
-    private void parse(ArrayList<Point> Pts, String Data) {
-        String[] Coords = Data.split(",");
-        for (int i = 0; i < Coords.length; i += 2) {
-            if (i + 1 >= Coords.length) break;
-            int hx = Integer.parseInt(Coords[i]);
-            int hy = Integer.parseInt(Coords[i + 1]);
-            Pts.add(new Point(hx, hy));
+    private synchronized void sendStateAck(int seq, int viewTick) {
+        if (out == null) return;
+        try {
+            codec.encodeStateAck(seq, viewTick, ackFrame);
+            ackFrame.writeFrameTo(out);
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
-    public void sendSetVelocity(int vx, int vy) {
+    public void sendSetVelocity(int vx, int vy, int seq) {
         if (!gameStarted) return;
         if (!"cat".equals(myRole) && !"mouse".equals(myRole)) return;
-        sendMessage(new Message(MessageType.SET_VELOCITY, vx + "," + vy));
+        sendMessage(new Message(MessageType.SET_VELOCITY, vx + "," + vy + "," + seq));
     }
 
-    public void assignRole(String clientId, String role) {
+    public void assignRole(int clientId, String role) {
         if (!isHost) return;
         sendMessage(new Message(MessageType.ASSIGN_ROLE, clientId + "," + role));
     }
@@ -283,22 +327,22 @@ public class GameClient {
         }
     }
 
-    public void kickPlayer(String clientId) {
+    public void kickPlayer(int clientId) {
         if (!isHost) return; // Только хост может кикать игроков
-        sendMessage(new Message(MessageType.KICK_PLAYER, clientId));
+        sendMessage(new Message(MessageType.KICK_PLAYER, String.valueOf(clientId)));
     }
 
-    public void sendMessage(Message msg) {
+    public synchronized void sendMessage(Message msg) {
         if (out == null) return;
         try {
-            out.writeObject(msg);
+            out.write(codec.encode(msg));
             out.flush();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    public Map<String, PlayerInfo> getPlayersMap() {
+    public Map<Integer, PlayerInfo> getPlayersMap() {
         return playersMap;
     }
 
@@ -306,6 +350,10 @@ public class GameClient {
         return isHost;
     }
 
+    public LatencyStats getLatency() {
+        return latency;
+    }
+
     public static class PlayerInfo {
         public String displayName;
         public String role;
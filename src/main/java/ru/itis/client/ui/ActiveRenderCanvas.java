@@ -0,0 +1,127 @@
+package ru.itis.client.ui;
+
+import java.awt.*;
+import java.awt.image.BufferStrategy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Активная отрисовка: собственный поток рисует в BufferStrategy с заданной частотой кадров,
+ * не проходя через очередь repaint() и EDT. fpsCap = 0 - без ограничения (режим замера).
+ */
+final class ActiveRenderCanvas extends Canvas {
+    private static final long STATS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+    // Последнюю часть ожидания крутимся, sleep/park на большинстве ОС не точнее ~1 мс
+    private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(1500);
+
+    private final SnapshotTimeline timeline;
+    private final LocalPrediction prediction;
+    private final RenderFrame frame = new RenderFrame();
+    private final BooleanSupplier gameStarted;
+    private final GameRenderer renderer;
+    private final int fpsCap;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    ActiveRenderCanvas(SnapshotTimeline timeline, LocalPrediction prediction, GameRenderer renderer,
+                       BooleanSupplier gameStarted, int fpsCap) {
+        this.timeline = timeline;
+        this.prediction = prediction;
+        this.renderer = renderer;
+        this.gameStarted = gameStarted;
+        this.fpsCap = fpsCap;
+        setIgnoreRepaint(true);
+        setFocusable(true);
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        createBufferStrategy(2);
+        running = true;
+        thread = new Thread(this::renderLoop, "render");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        running = false;
+        Thread t = thread;
+        if (t != null) {
+            try {
+                t.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        super.removeNotify();
+    }
+
+    private void renderLoop() {
+        BufferStrategy strategy = getBufferStrategy();
+        long frameNanos = fpsCap > 0 ? TimeUnit.SECONDS.toNanos(1) / fpsCap : 0;
+        long start = System.nanoTime();
+        long deadline = start;
+
+        long statsStart = start;
+        long frameCount = 0, late = 0, maxFrameNanos = 0;
+        long previous = start;
+
+        while (running) {
+            long frameStart = System.nanoTime();
+            timeline.sample(frameStart, frame);
+            prediction.apply(frameStart, frame);
+            do {
+                do {
+                    Graphics g = strategy.getDrawGraphics();
+                    try {
+                        renderer.render(g, getWidth(), getHeight(), frame, gameStarted.getAsBoolean());
+                    } finally {
+                        g.dispose();
+                    }
+                } while (strategy.contentsRestored());
+                strategy.show();
+            } while (strategy.contentsLost());
+            Toolkit.getDefaultToolkit().sync();
+
+            if (frameNanos > 0) {
+                deadline += frameNanos;
+                if (!waitUntil(deadline)) {
+                    // Отстали больше чем на кадр - не рисуем пачку кадров подряд
+                    late++;
+                    deadline = System.nanoTime();
+                }
+            }
+
+            long now = System.nanoTime();
+            maxFrameNanos = Math.max(maxFrameNanos, now - previous);
+            previous = now;
+            frameCount++;
+            if (now - statsStart >= STATS_INTERVAL_NANOS) {
+                if (fpsCap == 0 || late > 0) {
+                    System.out.printf("[Client] render: %.1f fps, max frame %.2f ms, late %d%n",
+                            frameCount * 1e9 / (now - statsStart), maxFrameNanos / 1e6, late);
+                }
+                statsStart = now;
+                frameCount = late = maxFrameNanos = 0;
+            }
+        }
+    }
+
+    // false, если дедлайн уже прошёл больше чем на кадр
+    private boolean waitUntil(long deadline) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining < -TimeUnit.SECONDS.toNanos(1) / fpsCap) return false;
+        while (remaining > SPIN_NANOS) {
+            LockSupport.parkNanos(remaining - SPIN_NANOS);
+            remaining = deadline - System.nanoTime();
+        }
+        while (deadline - System.nanoTime() > 0) {
+            Thread.onSpinWait();
+        }
+        return true;
+    }
+}
@@ -105,7 +105,7 @@ public class ConnectionWindow extends JFrame {
 
                 if (isHost) {
                     new Thread(() -> {
-                        GameServer server = new GameServer(port, true, null);
+                        GameServer server = new GameServer(port, true);
                         server.startServer();
                     }).start();
                 }
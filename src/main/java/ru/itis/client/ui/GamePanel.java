@@ -6,50 +6,48 @@ import java.awt.*;
 import java.awt.event.*;
 import java.util.*;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 import ru.itis.client.GameClient;
 import ru.itis.model.GameState;
-import ru.itis.client.ui.sprites.SpriteManager;
+import ru.itis.protocol.StateBuffer;
 
 public class GamePanel extends JPanel {
-    private long gameTime = 0;
-    private int totalScore = 0;
-    private int catX, catY;
-    private double catVelX = 0, catVelY = 0;
-    private boolean catLastFacingLeft = false;
-    private final Map<String, MouseView> miceMap = new ConcurrentHashMap<>();
-    private final List<Point> cheesePoints = new CopyOnWriteArrayList<>();
-    private final List<Point> holePoints = new CopyOnWriteArrayList<>();
+    // swing - отрисовка через repaint() на EDT, active - свой поток и BufferStrategy
+    private static final boolean ACTIVE_RENDER = "active".equalsIgnoreCase(System.getProperty("client.render"));
+    // Ограничение кадров в активном режиме; 0 - без ограничения, для замеров
+    private static final int FPS_CAP = Integer.getInteger("client.fps", 144);
+    // На сколько мс отрисовка отстаёт от последнего снимка; должно покрывать пару интервалов рассылки
+    private static final int INTERPOLATION_DELAY = Integer.getInteger("client.interpDelay", 100);
+
+    private final GameRenderer renderer = new GameRenderer();
+    // Поток сети складывает снимки, отрисовка берёт из них мир с задержкой
+    private final SnapshotTimeline timeline = new SnapshotTimeline(INTERPOLATION_DELAY);
+    // Свой персонаж рисуется по предсказанию, не дожидаясь сервера
+    private final LocalPrediction prediction = new LocalPrediction();
     private final Set<Integer> pressedKeys = new HashSet<>();
 
-    private boolean gameOver = false;
-    private String winner = "никто";
-    private boolean gameStarted = false;
-    private SpriteManager spriteManager;
+    private volatile boolean gameStarted = false;
+
+    // Кадр, который сейчас на экране в Swing-режиме; трогается только на EDT
+    private final RenderFrame frame = new RenderFrame();
+    private final Rectangle dirty = new Rectangle();
 
     private GameClient client;
 
     private Timer animationTimer;
+    private ActiveRenderCanvas canvas;
 
     public GamePanel() {
         setFocusable(true);
-        spriteManager = SpriteManager.getInstance();
-
-        animationTimer = new Timer(16, e -> {
-            spriteManager.updateAnimation();
-            gameTime += 16;
-            totalScore = miceMap.values().stream()
-                    .mapToInt(mv -> mv.score)
-                    .sum();
-            repaint();
-        });
-        animationTimer.start();
 
-        addKeyListener(new KeyAdapter() {
+        KeyAdapter keys = new KeyAdapter() {
             @Override
             public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_F3) {
+                    renderer.toggleDebug();
+                    repaint();
+                    return;
+                }
                 pressedKeys.add(e.getKeyCode());
                 recalcVelocity();
             }
@@ -59,61 +57,80 @@ public class GamePanel extends JPanel {
                 pressedKeys.remove(e.getKeyCode());
                 recalcVelocity();
             }
-        });
+        };
+        addKeyListener(keys);
+
+        if (ACTIVE_RENDER) {
+            setLayout(new BorderLayout());
+            canvas = new ActiveRenderCanvas(timeline, prediction, renderer, () -> gameStarted, FPS_CAP);
+            canvas.addKeyListener(keys);
+            add(canvas, BorderLayout.CENTER);
+        } else {
+            animationTimer = new Timer(16, e -> repaintChanged());
+            animationTimer.start();
+        }
+    }
+
+    @Override
+    public boolean requestFocusInWindow() {
+        return canvas != null ? canvas.requestFocusInWindow() : super.requestFocusInWindow();
     }
 
     public void setClient(GameClient client) {
         this.client = client;
+        renderer.setLatency(client.getLatency());
     }
 
-    public synchronized void updateState(boolean gOver, String winner,
-                                         int catX, int catY,
-                                         double catVelX, double catVelY,
-                                         Map<String, MouseView> newMice,
-                                         List<Point> newCheese,
-                                         List<Point> newHoles) {
-        this.gameOver = gOver;
-        this.winner = winner;
-        this.catX = catX;
-        this.catY = catY;
-        this.catVelX = catVelX;
-        this.catVelY = catVelY;
-
-        miceMap.clear();
-        miceMap.putAll(newMice);
-
-        cheesePoints.clear();
-        cheesePoints.addAll(newCheese);
-
-        holePoints.clear();
-        holePoints.addAll(newHoles);
-
-        for (var mv : miceMap.values()) {
-            if (Math.abs(mv.velX) > 0.1 || Math.abs(mv.velY) > 0.1) {
-                if (Math.abs(mv.velX) > 0.1) {
-                    mv.setLastFacingLeft(mv.velX < 0);
-                }
-            }
-        }
-        repaint();
+    // Вызывается только из потока сети; state принадлежит клиенту и после возврата будет переписан
+    public void updateState(StateBuffer state) {
+        // Кадр соберёт таймер (Swing) или поток отрисовки (активный режим)
+        long now = System.nanoTime();
+        timeline.add(state, now);
+        prediction.onSnapshot(state, now);
+    }
+
+    /**
+     * Тик сервера, который сейчас на экране (остальные сущности), или -1. Вызывается только из потока сети.
+     */
+    public int getViewTick() {
+        return timeline.viewTick(System.nanoTime());
+    }
+
+    // Вызывается из потока сети, когда сервер назначил роль
+    public void setLocalPlayer(String role, int playerId) {
+        prediction.setAvatar(role, playerId);
     }
 
-    public synchronized void setGameStarted(boolean started) {
+    public void setGameStarted(boolean started) {
         this.gameStarted = started;
         repaint();
     }
 
-    public synchronized void resetState() {
-        catX = catY = 0;
-        miceMap.clear();
-        cheesePoints.clear();
-        holePoints.clear();
-        gameOver = false;
-        winner = "никто";
+    // Вызывается только из потока сети
+    public void resetState() {
+        timeline.clear();
+        prediction.setAvatar("pending", -1);
         gameStarted = false;
         repaint();
     }
 
+    // Перерисовываем только то, что изменилось с прошлого кадра на экране
+    private void repaintChanged() {
+        if (!gameStarted) return;
+        boolean wasGameOver = frame.gameOver;
+        int items = frame.itemsHash, state = frame.stateHash;
+        long now = System.nanoTime();
+        timeline.sample(now, frame);
+        prediction.apply(now, frame);
+        if (frame.gameOver || wasGameOver || frame.itemsHash != items) {
+            renderer.collectDirty(frame, true, getWidth(), getHeight(), dirty);
+            repaint();
+        } else if (renderer.collectDirty(frame, frame.stateHash != state, getWidth(), getHeight(), dirty)) {
+            repaint(dirty);
+        }
+        dirty.setBounds(0, 0, -1, -1);
+    }
+
     private void recalcVelocity() {
         if (client == null || !gameStarted) return;
 
@@ -123,103 +140,13 @@ public class GamePanel extends JPanel {
         if (pressedKeys.contains(KeyEvent.VK_LEFT)) vx -= 3;
         if (pressedKeys.contains(KeyEvent.VK_RIGHT)) vx += 3;
 
-        client.sendSetVelocity(vx, vy);
+        client.sendSetVelocity(vx, vy, prediction.input(vx, vy, System.nanoTime()));
     }
 
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
-        
-        if (!gameStarted) {
-            spriteManager.drawBackground(g, getWidth(), getHeight());
-            return;
-        }
-
-        Graphics2D g2d = (Graphics2D) g;
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-
-        int w = getWidth();
-        int h = getHeight();
-        float scaleX = (float) w / GameState.WIDTH;
-        float scaleY = (float) h / GameState.HEIGHT;
-
-        spriteManager.drawBackground(g, w, h);
-        
-        for (Point hрPoint : holePoints) {
-            int hx = (int) (hрPoint.x * scaleX);
-            int hy = (int) (hрPoint.y * scaleY);
-            spriteManager.drawSpriteWithShadow(g, "hole", hx - 24, hy - 24, 48, 48, 0);
-        }
-        
-        for (Point c : cheesePoints) {
-            int cx = (int) (c.x * scaleX);
-            int cy = (int) (c.y * scaleY);
-            spriteManager.drawSpriteWithShadow(g, "cheese", cx - 24, cy - 24, 48, 48, 0);
-        }
-        
-        int drawCatX = (int) (catX * scaleX);
-        int drawCatY = (int) (catY * scaleY);
-        String catAnim;
-        
-        if (Math.abs(catVelX) > 0.1 || Math.abs(catVelY) > 0.1) {
-            if (Math.abs(catVelX) > 0.1) {
-                catAnim = catVelX > 0 ? "cat_run_right" : "cat_run_left";
-                catLastFacingLeft = catVelX < 0;
-            } else {
-                catAnim = catLastFacingLeft ? "cat_run_left" : "cat_run_right";
-            }
-        } else {
-            catAnim = catLastFacingLeft ? "LeftIdle" : "RightIdle";
-        }
-        spriteManager.drawSpriteWithShadow(g, catAnim, drawCatX - 40, drawCatY - 40, 80, 80, 0);
-        
-        for (var mv : miceMap.values()) {
-            int mx = (int) (mv.x * scaleX);
-            int my = (int) (mv.y * scaleY);
-            String mouseAnim;
-            
-            if (Math.abs(mv.velX) > 0.1 || Math.abs(mv.velY) > 0.1) {
-                if (Math.abs(mv.velX) > 0.1) {
-                    mv.setLastFacingLeft(mv.velX < 0);
-                }
-                
-                if (mv.isLastFacingLeft()) {
-                    mouseAnim = mv.carryingCheese ? "mouse_run_left_cheese" : "mouse_run_left";
-                } else {
-                    mouseAnim = mv.carryingCheese ? "mouse_run_right_cheese" : "mouse_run_right";
-                }
-            } else {
-                if (mv.isLastFacingLeft()) {
-                    mouseAnim = mv.carryingCheese ? "left_idle_cheese" : "left_idle";
-                } else {
-                    mouseAnim = mv.carryingCheese ? "right_idle_cheese" : "right_idle";
-                }
-            }
-
-            if (!mv.alive) {
-                g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.5f));
-            }
-            spriteManager.drawSpriteWithShadow(g, mouseAnim, mx - 24, my - 24, 48, 48, 0);
-            if (!mv.alive) {
-                g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1.0f));
-            }
-        }
-
-        spriteManager.drawAnimatedScore(g, getWidth() - 100, 50, totalScore, gameTime);
-
-        if (gameOver) {
-            g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.8f));
-            g2d.setColor(new Color(0, 0, 0, 128));
-            g2d.fillRect(0, 0, getWidth(), getHeight());
-
-            String text = "Игра окончена! Победитель: " + winner;
-            g2d.setFont(new Font("Arial", Font.BOLD, 32));
-            FontMetrics fm = g2d.getFontMetrics();
-            int textWidth = fm.stringWidth(text);
-
-            g2d.setColor(Color.WHITE);
-            g2d.drawString(text, (getWidth() - textWidth) / 2, getHeight() / 2);
-        }
+        if (canvas != null) return;
+        renderer.render(g, getWidth(), getHeight(), frame, gameStarted);
     }
 }
@@ -0,0 +1,208 @@
+package ru.itis.client.ui;
+
+import ru.itis.client.ui.sprites.Sprite;
+import ru.itis.client.ui.sprites.SpriteManager;
+import ru.itis.model.GameState;
+import ru.itis.protocol.LatencyStats;
+
+import java.awt.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Рисует кадр игры. Общий для отрисовки через Swing и для активного режима;
+ * рисует всегда один поток - EDT или поток активной отрисовки.
+ */
+final class GameRenderer {
+    // Сдвиг фазы анимации между мышами, чтобы они не перебирали кадры хором
+    private static final int MOUSE_PHASE_MILLIS = 37;
+    private static final int CAT_SIZE = 80;
+    private static final int MOUSE_SIZE = 48;
+    private static final int ITEM_SIZE = 48;
+    // Запечённая тень выступает за спрайт
+    private static final int SHADOW = 3;
+
+    private final SpriteManager spriteManager = SpriteManager.getInstance();
+    private final HudLayer hud = new HudLayer();
+    private final long startNanos = System.nanoTime();
+    private boolean catLastFacingLeft = false;
+
+    // Отладочная панель с задержкой до сервера, переключается F3
+    private volatile LatencyStats latency;
+    private volatile boolean showDebug = Boolean.getBoolean("client.debug");
+    private String[] debugLines = new String[0];
+    private long debugSamples = -1;
+
+    // Что было на экране при последнем запросе перерисовки
+    private final Rectangle entityBounds = new Rectangle();
+    private int animationState;
+
+    long gameTime() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    void render(Graphics g, int w, int h, RenderFrame f, boolean gameStarted) {
+        long gameTime = gameTime();
+        if (!gameStarted) {
+            spriteManager.drawBackground(g, w, h);
+            return;
+        }
+
+        Graphics2D g2d = (Graphics2D) g;
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+
+        float scaleX = (float) w / GameState.WIDTH;
+        float scaleY = (float) h / GameState.HEIGHT;
+
+        spriteManager.drawBackground(g, w, h);
+
+        for (int i = 0; i + 1 < f.holeLength; i += 2) {
+            int hx = (int) (f.holeCoords[i] * scaleX);
+            int hy = (int) (f.holeCoords[i + 1] * scaleY);
+            spriteManager.drawSpriteWithShadow(g, Sprite.HOLE, gameTime, hx - ITEM_SIZE / 2, hy - ITEM_SIZE / 2, ITEM_SIZE, ITEM_SIZE);
+        }
+
+        for (int i = 0; i + 1 < f.cheeseLength; i += 2) {
+            int cx = (int) (f.cheeseCoords[i] * scaleX);
+            int cy = (int) (f.cheeseCoords[i + 1] * scaleY);
+            spriteManager.drawSpriteWithShadow(g, Sprite.CHEESE, gameTime, cx - ITEM_SIZE / 2, cy - ITEM_SIZE / 2, ITEM_SIZE, ITEM_SIZE);
+        }
+
+        int drawCatX = (int) (f.catX * scaleX);
+        int drawCatY = (int) (f.catY * scaleY);
+        spriteManager.drawSpriteWithShadow(g, catSprite(f), gameTime,
+                drawCatX - CAT_SIZE / 2, drawCatY - CAT_SIZE / 2, CAT_SIZE, CAT_SIZE);
+
+        for (int i = 0; i < f.miceCount; i++) {
+            MouseView mv = f.mice[i];
+            int mx = (int) (mv.x * scaleX) - MOUSE_SIZE / 2;
+            int my = (int) (mv.y * scaleY) - MOUSE_SIZE / 2;
+            if (mv.alive) {
+                spriteManager.drawSpriteWithShadow(g, mouseSprite(mv), mouseTime(mv, gameTime), mx, my, MOUSE_SIZE, MOUSE_SIZE);
+            } else {
+                spriteManager.drawFadedSpriteWithShadow(g, mouseSprite(mv), mouseTime(mv, gameTime), mx, my, MOUSE_SIZE, MOUSE_SIZE);
+            }
+        }
+
+        hud.drawScore(g, w - 100, 50, f.totalScore, gameTime);
+
+        if (f.gameOver) {
+            hud.drawGameOver(g2d, w, h, f.winner);
+        }
+
+        if (showDebug) {
+            hud.drawDebug(g, debugLines());
+        }
+    }
+
+    void setLatency(LatencyStats latency) {
+        this.latency = latency;
+    }
+
+    void toggleDebug() {
+        showDebug = !showDebug;
+    }
+
+    // Строки пересобираются только после нового замера
+    private String[] debugLines() {
+        LatencyStats l = latency;
+        long samples = l == null ? 0 : l.getSamples();
+        if (samples != debugSamples) {
+            debugSamples = samples;
+            debugLines = samples == 0
+                    ? new String[]{"ping: waiting for server"}
+                    : new String[]{
+                            String.format("RTT %.1f ms, jitter %.1f ms", l.getRttNanos() / 1e6, l.getJitterNanos() / 1e6),
+                            String.format("clock offset %+d ms, %d pings", l.getClockOffsetMillis(), samples)};
+        }
+        return debugLines;
+    }
+
+    /**
+     * Добавляет в out область, которая изменится, если нарисовать кадр f сейчас:
+     * старые и новые границы сущностей, если они сдвинулись или сменили кадр анимации,
+     * и плашку счёта, если она устарела. Возвращает false, если перерисовывать нечего.
+     */
+    boolean collectDirty(RenderFrame f, boolean newFrame, int w, int h, Rectangle out) {
+        long gameTime = gameTime();
+        boolean dirty = false;
+        int animation = animationState(f, gameTime);
+        if (newFrame || animation != animationState) {
+            union(out, entityBounds);
+            computeEntityBounds(f, w, h, entityBounds);
+            union(out, entityBounds);
+            animationState = animation;
+            dirty = true;
+        }
+        if (hud.isStale(f.totalScore, gameTime)) {
+            hud.addScoreBounds(w - 100, 50, out);
+            dirty = true;
+        }
+        LatencyStats l = latency;
+        if (showDebug && l != null && l.getSamples() != debugSamples) {
+            hud.addDebugBounds(out);
+            dirty = true;
+        }
+        return dirty;
+    }
+
+    private void computeEntityBounds(RenderFrame f, int w, int h, Rectangle out) {
+        float scaleX = (float) w / GameState.WIDTH;
+        float scaleY = (float) h / GameState.HEIGHT;
+        out.setBounds(0, 0, -1, -1);
+        union(out, (int) (f.catX * scaleX) - CAT_SIZE / 2, (int) (f.catY * scaleY) - CAT_SIZE / 2,
+                CAT_SIZE + SHADOW, CAT_SIZE + SHADOW);
+        for (int i = 0; i < f.miceCount; i++) {
+            MouseView mv = f.mice[i];
+            union(out, (int) (mv.x * scaleX) - MOUSE_SIZE / 2, (int) (mv.y * scaleY) - MOUSE_SIZE / 2,
+                    MOUSE_SIZE + SHADOW, MOUSE_SIZE + SHADOW);
+        }
+    }
+
+    // Меняется, когда у кого-то сменился спрайт или кадр анимации
+    private int animationState(RenderFrame f, long gameTime) {
+        Sprite cat = catSprite(f);
+        int state = cat.ordinal() * 31 + SpriteManager.frameAt(cat, gameTime);
+        for (int i = 0; i < f.miceCount; i++) {
+            MouseView mv = f.mice[i];
+            Sprite sprite = mouseSprite(mv);
+            state = state * 31 + sprite.ordinal();
+            state = state * 31 + SpriteManager.frameAt(sprite, mouseTime(mv, gameTime));
+            state = state * 31 + (mv.alive ? 1 : 0);
+        }
+        return state;
+    }
+
+    private Sprite catSprite(RenderFrame f) {
+        boolean running = Math.abs(f.catVelX) > 0.1 || Math.abs(f.catVelY) > 0.1;
+        if (Math.abs(f.catVelX) > 0.1) {
+            catLastFacingLeft = f.catVelX < 0;
+        }
+        return Sprite.cat(running, catLastFacingLeft);
+    }
+
+    private static Sprite mouseSprite(MouseView mv) {
+        boolean running = Math.abs(mv.velX) > 0.1 || Math.abs(mv.velY) > 0.1;
+        if (Math.abs(mv.velX) > 0.1) {
+            mv.setLastFacingLeft(mv.velX < 0);
+        }
+        return Sprite.mouse(running, mv.isLastFacingLeft(), mv.carryingCheese);
+    }
+
+    private static long mouseTime(MouseView mv, long gameTime) {
+        return gameTime + (long) mv.id * MOUSE_PHASE_MILLIS;
+    }
+
+    static void union(Rectangle out, Rectangle r) {
+        if (!r.isEmpty()) union(out, r.x, r.y, r.width, r.height);
+    }
+
+    // В отличие от Rectangle.add пустой out не тянет за собой точку (0, 0)
+    static void union(Rectangle out, int x, int y, int width, int height) {
+        if (out.isEmpty()) {
+            out.setBounds(x, y, width, height);
+        } else {
+            out.add(new Rectangle(x, y, width, height));
+        }
+    }
+}
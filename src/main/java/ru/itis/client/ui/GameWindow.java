@@ -109,15 +109,26 @@ public class GameWindow extends JFrame {
             JOptionPane.showMessageDialog(this, "Выберите игрока", "Не выбран игрок", JOptionPane.WARNING_MESSAGE);
             return;
         }
-        String[] parts = selectedPlayer.split(",");
-        if (parts.length < 1) return;
-        String clientId = parts[0].substring(parts[0].indexOf("(") + 1, parts[0].indexOf(")"));
+        int clientId = parseClientId(selectedPlayer);
+        if (clientId < 0) return;
         client.kickPlayer(clientId);
     }
 
+    // Строка списка: "Имя (id),роль"
+    private static int parseClientId(String line) {
+        int start = line.lastIndexOf('(');
+        int end = line.indexOf(')', start);
+        if (start == -1 || end == -1) return -1;
+        try {
+            return Integer.parseInt(line.substring(start + 1, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     private void onRandomRoles(ActionEvent e) {
         var pm = client.getPlayersMap();
-        List<String> nonHostIds = new ArrayList<>();
+        List<Integer> nonHostIds = new ArrayList<>();
         for (var entry : pm.entrySet()) {
             if (!"host".equals(entry.getValue())) {
                 nonHostIds.add(entry.getKey());
@@ -126,10 +137,10 @@ public class GameWindow extends JFrame {
         if (nonHostIds.isEmpty()) return;
 
         int idx = (int)(Math.random()*nonHostIds.size());
-        String catId = nonHostIds.get(idx);
+        int catId = nonHostIds.get(idx);
 
-        for (String cid : nonHostIds) {
-            if (cid.equals(catId)) {
+        for (int cid : nonHostIds) {
+            if (cid == catId) {
                 client.assignRole(cid, "cat");
             } else {
                 client.assignRole(cid, "mouse");
@@ -140,16 +151,10 @@ public class GameWindow extends JFrame {
     private void onMakeCat(ActionEvent e) {
         String sel = playersList.getSelectedValue();
         if (sel == null) return;
-        String[] arr = sel.split(",");
-        if (arr.length<2) return;
-        System.out.println(arr[0]);
-        int start = arr[0].indexOf("client-");
-        int end = arr[0].indexOf(")", start);
-
-        if (start != -1 && end != -1) {
-            String clientId = arr[0].substring(start, end);
-            System.out.println(clientId);
-            client.assignRole(clientId, "cat");}
+        int clientId = parseClientId(sel);
+        if (clientId >= 0) {
+            client.assignRole(clientId, "cat");
+        }
     }
 
     private void onStartGame(ActionEvent e) {
@@ -0,0 +1,153 @@
+package ru.itis.client.ui;
+
+import ru.itis.client.ui.sprites.SpriteManager;
+
+import java.awt.*;
+import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Плашка со счётом, закэшированная в изображение. Пульсация квантуется на PULSE_BUCKETS уровней,
+ * и изображение перерисовывается только при смене счёта или уровня.
+ */
+final class HudLayer {
+    private static final int WIDTH = 120;
+    private static final int HEIGHT = 40;
+    private static final int MARGIN = 4;
+    private static final int PULSE_BUCKETS = 16;
+
+    private static final Color TOP = new Color(139, 69, 19, 200);    // Saddle brown
+    private static final Color BOTTOM = new Color(101, 67, 33, 200); // Dark brown
+    private static final Color TEXT_SHADOW = new Color(0, 0, 0, 100);
+    private static final Color GOLD = new Color(255, 223, 0);
+    private static final BasicStroke BORDER = new BasicStroke(2f);
+
+    private static final Color OVERLAY = new Color(0, 0, 0, 128);
+    private static final AlphaComposite OVERLAY_COMPOSITE = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.8f);
+    private static final Font GAME_OVER_FONT = new Font("Arial", Font.BOLD, 32);
+
+    private static final Font DEBUG_FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+    private static final Color DEBUG_BACKGROUND = new Color(0, 0, 0, 160);
+    private static final int DEBUG_X = 10, DEBUG_Y = 10, DEBUG_WIDTH = 260, DEBUG_LINE = 15, DEBUG_MAX_LINES = 2;
+
+    private final Font[] fonts = new Font[PULSE_BUCKETS];
+    private final Color[] borders = new Color[PULSE_BUCKETS];
+
+    private BufferedImage image;
+    private int renderedScore = -1;
+    private int renderedBucket = -1;
+
+    private String gameOverText;
+    private String gameOverWinner;
+
+    HudLayer() {
+        for (int i = 0; i < PULSE_BUCKETS; i++) {
+            double pulse = pulse(i);
+            fonts[i] = new Font("Arial", Font.BOLD, (int) (24 * pulse));
+            borders[i] = new Color(218, 165, 32, (int) (100 * pulse)); // Golden rod
+        }
+    }
+
+    private static double pulse(int bucket) {
+        return 0.7 + 0.3 * bucket / (PULSE_BUCKETS - 1);
+    }
+
+    private static int bucket(long gameTime) {
+        return (int) Math.round(Math.abs(Math.sin(gameTime / 500.0)) * (PULSE_BUCKETS - 1));
+    }
+
+    boolean isStale(int score, long gameTime) {
+        return score != renderedScore || bucket(gameTime) != renderedBucket;
+    }
+
+    void addScoreBounds(int x, int y, Rectangle out) {
+        GameRenderer.union(out, x - WIDTH / 2 - MARGIN, y - HEIGHT / 2 - MARGIN, WIDTH + 2 * MARGIN, HEIGHT + 2 * MARGIN);
+    }
+
+    // x, y - центр плашки
+    void drawScore(Graphics g, int x, int y, int score, long gameTime) {
+        int left = x - WIDTH / 2 - MARGIN;
+        int top = y - HEIGHT / 2 - MARGIN;
+        // Плашка вне области перерисовки: не обновляем кэш, иначе он разойдётся с экраном
+        if (!g.hitClip(left, top, WIDTH + 2 * MARGIN, HEIGHT + 2 * MARGIN)) return;
+
+        int bucket = bucket(gameTime);
+        if (image == null || score != renderedScore || bucket != renderedBucket) {
+            renderScore(score, bucket);
+        }
+        g.drawImage(image, left, top, null);
+    }
+
+    private void renderScore(int score, int bucket) {
+        if (image == null) {
+            image = SpriteManager.createCompatibleImage(WIDTH + 2 * MARGIN, HEIGHT + 2 * MARGIN, Transparency.TRANSLUCENT);
+        }
+        Graphics2D g2d = image.createGraphics();
+        try {
+            g2d.setComposite(AlphaComposite.Clear);
+            g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+            g2d.setComposite(AlphaComposite.SrcOver);
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+            int cx = MARGIN + WIDTH / 2;
+            int cy = MARGIN + HEIGHT / 2;
+            RoundRectangle2D box = new RoundRectangle2D.Float(MARGIN, MARGIN, WIDTH, HEIGHT, 15, 15);
+            g2d.setPaint(new GradientPaint(cx, cy, TOP, cx, cy + HEIGHT, BOTTOM));
+            g2d.fill(box);
+
+            g2d.setStroke(BORDER);
+            g2d.setColor(borders[bucket]);
+            g2d.draw(box);
+
+            g2d.setFont(fonts[bucket]);
+            String scoreText = "Счёт: " + score;
+            FontMetrics fm = g2d.getFontMetrics();
+            int textWidth = fm.stringWidth(scoreText);
+
+            g2d.setColor(TEXT_SHADOW);
+            g2d.drawString(scoreText, cx - textWidth / 2 + 2, cy + fm.getAscent() / 2 + 2);
+
+            g2d.setColor(GOLD);
+            g2d.drawString(scoreText, cx - textWidth / 2, cy + fm.getAscent() / 2);
+        } finally {
+            g2d.dispose();
+        }
+        renderedScore = score;
+        renderedBucket = bucket;
+    }
+
+    void addDebugBounds(Rectangle out) {
+        GameRenderer.union(out, DEBUG_X, DEBUG_Y, DEBUG_WIDTH, DEBUG_MAX_LINES * DEBUG_LINE + 8);
+    }
+
+    void drawDebug(Graphics g, String[] lines) {
+        g.setColor(DEBUG_BACKGROUND);
+        g.fillRect(DEBUG_X, DEBUG_Y, DEBUG_WIDTH, lines.length * DEBUG_LINE + 8);
+        g.setFont(DEBUG_FONT);
+        g.setColor(Color.WHITE);
+        for (int i = 0; i < lines.length; i++) {
+            g.drawString(lines[i], DEBUG_X + 6, DEBUG_Y + (i + 1) * DEBUG_LINE);
+        }
+    }
+
+    void drawGameOver(Graphics2D g2d, int w, int h, String winner) {
+        if (!winner.equals(gameOverWinner)) {
+            gameOverWinner = winner;
+            gameOverText = "Игра окончена! Победитель: " + winner;
+        }
+        // Прозрачность только для затемнения, иначе она достанется всему, что рисуется после
+        Composite saved = g2d.getComposite();
+        g2d.setComposite(OVERLAY_COMPOSITE);
+        g2d.setColor(OVERLAY);
+        g2d.fillRect(0, 0, w, h);
+        g2d.setComposite(saved);
+
+        g2d.setFont(GAME_OVER_FONT);
+        FontMetrics fm = g2d.getFontMetrics();
+        int textWidth = fm.stringWidth(gameOverText);
+
+        g2d.setColor(Color.WHITE);
+        g2d.drawString(gameOverText, (w - textWidth) / 2, h / 2);
+    }
+}
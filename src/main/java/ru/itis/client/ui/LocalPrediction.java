@@ -0,0 +1,154 @@
+package ru.itis.client.ui;
+
+import ru.itis.model.GameState;
+import ru.itis.protocol.StateBuffer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Предсказание собственного персонажа. Каждый ввод получает номер и сразу учитывается локально.
+ * Когда снимок подтверждает номер, позиция берётся с сервера, а ещё не подтверждённый ввод
+ * проигрывается поверх неё тик за тиком по правилам GameState.updatePositions.
+ * Персонаж рисуется в предсказанном настоящем, остальные - с задержкой интерполяции.
+ * Ввод приходит с EDT, снимки - из потока сети, чтение - из потока отрисовки.
+ */
+final class LocalPrediction {
+    private static final int MAX_PENDING = 64;
+    // Ввод без подтверждения дольше этого считаем потерянным
+    private static final long PENDING_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // Дальше вперёд не предсказываем, даже если сервер надолго замолчал
+    private static final long MAX_AHEAD_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long INITIAL_RTT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final double RTT_SMOOTHING = 0.125;
+
+    private boolean cat;
+    private int mouseId = -1;
+    private int nextSeq = 0;
+
+    // Неподтверждённый ввод, кольцо в порядке номеров
+    private final int[] pendingSeq = new int[MAX_PENDING];
+    private final int[] pendingVx = new int[MAX_PENDING];
+    private final int[] pendingVy = new int[MAX_PENDING];
+    private final long[] pendingSent = new long[MAX_PENDING];
+    private int pendingStart, pendingCount;
+
+    // Последнее состояние персонажа от сервера
+    private boolean hasBase;
+    private int baseX, baseY, baseVx, baseVy;
+    private int ackedSeq;
+    private long baseArrival;
+    private int tickRate = 60;
+
+    private long rttNanos = INITIAL_RTT_NANOS;
+
+    synchronized void setAvatar(String role, int id) {
+        cat = "cat".equals(role);
+        mouseId = "mouse".equals(role) ? id : -1;
+        reset();
+    }
+
+    synchronized void reset() {
+        hasBase = false;
+        pendingCount = 0;
+        ackedSeq = 0;
+    }
+
+    /**
+     * Запоминает ввод и возвращает номер, с которым его нужно отправить.
+     */
+    synchronized int input(int vx, int vy, long nowNanos) {
+        int seq = ++nextSeq;
+        if (pendingCount == MAX_PENDING) {
+            pendingStart = (pendingStart + 1) % MAX_PENDING;
+            pendingCount--;
+        }
+        int i = (pendingStart + pendingCount) % MAX_PENDING;
+        pendingSeq[i] = seq;
+        pendingVx[i] = vx;
+        pendingVy[i] = vy;
+        pendingSent[i] = nowNanos;
+        pendingCount++;
+        return seq;
+    }
+
+    synchronized void onSnapshot(StateBuffer state, long arrivalNanos) {
+        int ack;
+        if (cat) {
+            baseX = state.catX;
+            baseY = state.catY;
+            baseVx = state.catVx;
+            baseVy = state.catVy;
+            ack = state.catInputSeq;
+            hasBase = true;
+        } else if (mouseId >= 0) {
+            int me = state.indexOf(mouseId, 0);
+            // Пойманную мышь не двигаем: сервер её тоже не двигает
+            hasBase = me >= 0 && state.mouseHas(me, StateBuffer.ALIVE);
+            if (me < 0) return;
+            baseX = state.mouseX[me];
+            baseY = state.mouseY[me];
+            baseVx = state.mouseVx[me];
+            baseVy = state.mouseVy[me];
+            ack = state.mouseInputSeq[me];
+        } else {
+            return;
+        }
+        baseArrival = arrivalNanos;
+        if (state.tickRate > 0) tickRate = state.tickRate;
+
+        while (pendingCount > 0) {
+            int i = pendingStart;
+            boolean acked = pendingSeq[i] <= ack;
+            if (!acked && arrivalNanos - pendingSent[i] < PENDING_TIMEOUT_NANOS) break;
+            if (acked && pendingSeq[i] == ack && ack != ackedSeq) {
+                // Первое подтверждение ввода - заодно замер задержки туда и обратно
+                long sample = arrivalNanos - pendingSent[i];
+                rttNanos += (long) ((sample - rttNanos) * RTT_SMOOTHING);
+            }
+            pendingStart = (pendingStart + 1) % MAX_PENDING;
+            pendingCount--;
+        }
+        ackedSeq = ack;
+    }
+
+    /**
+     * Подставляет в кадр предсказанную позицию персонажа.
+     */
+    void apply(long nowNanos, RenderFrame frame) {
+        int x, y, vx, vy;
+        boolean isCat;
+        int id;
+        synchronized (this) {
+            if (!hasBase) return;
+            isCat = cat;
+            id = mouseId;
+            x = baseX;
+            y = baseY;
+            vx = baseVx;
+            vy = baseVy;
+
+            // Снимок пришёл примерно через RTT/2 после тика, а ввод, отправленный сейчас,
+            // сервер применит ещё через RTT/2: предсказываем на RTT вперёд от момента прихода
+            long ahead = Math.min(nowNanos - baseArrival + rttNanos, MAX_AHEAD_NANOS);
+            int ticks = (int) (ahead * tickRate / TimeUnit.SECONDS.toNanos(1));
+            int next = 0;
+            for (int k = 1; k <= ticks; k++) {
+                while (next < pendingCount) {
+                    int i = (pendingStart + next) % MAX_PENDING;
+                    long applyAt = pendingSent[i] - baseArrival + rttNanos;
+                    if (applyAt * tickRate / TimeUnit.SECONDS.toNanos(1) > k - 1) break;
+                    vx = isCat ? GameState.catSpeed(pendingVx[i]) : GameState.mouseSpeed(pendingVx[i]);
+                    vy = isCat ? GameState.catSpeed(pendingVy[i]) : GameState.mouseSpeed(pendingVy[i]);
+                    next++;
+                }
+                x = GameState.clamp(x + vx, GameState.WIDTH);
+                y = GameState.clamp(y + vy, GameState.HEIGHT);
+            }
+        }
+        if (isCat) {
+            frame.overrideCat(x, y, vx, vy);
+        } else {
+            frame.overrideMouse(id, x, y, vx, vy);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package ru.itis.client.ui;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MouseView {
+    public int id;
     public int x, y;
     public boolean alive;
     public boolean carryingCheese;
@@ -21,6 +22,22 @@ public class MouseView {
         this.lastFacingLeft.set(lastFacingLeft);
     }
 
+    MouseView() {
+    }
+
+    // Переиспользуем объект вместо создания нового на каждый снимок
+    void set(int id, int x, int y, int velX, int velY, boolean alive, boolean carryingCheese, int score, boolean lastFacingLeft) {
+        this.id = id;
+        this.x = x;
+        this.y = y;
+        this.velX = velX;
+        this.velY = velY;
+        this.alive = alive;
+        this.carryingCheese = carryingCheese;
+        this.score = score;
+        this.lastFacingLeft.set(lastFacingLeft);
+    }
+
     public boolean isLastFacingLeft() {
         return lastFacingLeft.get();
     }
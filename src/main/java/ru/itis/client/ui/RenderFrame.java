@@ -0,0 +1,161 @@
+package ru.itis.client.ui;
+
+import ru.itis.model.GameState;
+import ru.itis.protocol.StateBuffer;
+
+import java.util.Arrays;
+
+/**
+ * Всё, что нужно для отрисовки одного кадра. Буферы переиспользуются между кадрами,
+ * поэтому заполнение кадра ничего не выделяет после прогрева.
+ */
+final class RenderFrame {
+    // Подпись на экране конца игры, когда сервер не назвал победителя
+    private static final String NO_WINNER = "никто";
+
+    boolean gameOver;
+    String winner = NO_WINNER;
+    int catX, catY;
+    int catVelX, catVelY;
+    int totalScore;
+
+    MouseView[] mice = new MouseView[0];
+    int miceCount;
+    int[] cheeseCoords = new int[0];
+    int cheeseLength;
+    int[] holeCoords = new int[0];
+    int holeLength;
+    // Меняется вместе с сыром и норами: по нему Swing-режим решает, нужна ли полная перерисовка
+    int itemsHash;
+    // Меняется, когда сдвинулась или сменила состояние хоть одна сущность
+    int stateHash;
+
+    /**
+     * Мир на тике tick: дискретное состояние берётся из from, позиции интерполируются к to,
+     * а если to == null - экстраполируются от from по скорости.
+     */
+    void fill(StateBuffer from, StateBuffer to, double tick) {
+        gameOver = from.gameOver;
+        winner = from.winner == null ? NO_WINNER : from.winner;
+        catVelX = from.catVx;
+        catVelY = from.catVy;
+
+        double alpha = 0, dt = 0;
+        if (to != null) {
+            alpha = (tick - from.tick) / (to.tick - from.tick);
+        } else if (!from.gameOver) {
+            dt = Math.max(0, tick - from.tick);
+        }
+        if (to != null) {
+            catX = lerp(from.catX, to.catX, alpha);
+            catY = lerp(from.catY, to.catY, alpha);
+        } else {
+            catX = clamp(from.catX + from.catVx * dt, GameState.WIDTH);
+            catY = clamp(from.catY + from.catVy * dt, GameState.HEIGHT);
+        }
+        int hash = 31 * catX + catY;
+
+        int n = from.miceCount;
+        if (n > mice.length) {
+            mice = Arrays.copyOf(mice, Math.max(n, mice.length * 2));
+        }
+        int score = 0;
+        for (int i = 0; i < n; i++) {
+            MouseView mv = mice[i];
+            if (mv == null) {
+                mv = mice[i] = new MouseView();
+            }
+            boolean alive = from.mouseHas(i, StateBuffer.ALIVE);
+            boolean carrying = from.mouseHas(i, StateBuffer.CARRYING_CHEESE);
+            int vx = from.mouseVx[i], vy = from.mouseVy[i];
+            int x = from.mouseX[i], y = from.mouseY[i];
+            if (alive) {
+                // Сервер перечисляет мышей в одном порядке, так что обычно совпадает индекс
+                int next = to == null ? -1 : to.indexOf(from.mouseId[i], i);
+                if (next >= 0) {
+                    x = lerp(x, to.mouseX[next], alpha);
+                    y = lerp(y, to.mouseY[next], alpha);
+                } else if (to == null) {
+                    x = clamp(x + vx * dt, GameState.WIDTH);
+                    y = clamp(y + vy * dt, GameState.HEIGHT);
+                }
+            }
+            mv.set(from.mouseId[i], x, y, vx, vy, alive, carrying, from.mouseCarried[i],
+                    from.mouseHas(i, StateBuffer.FACING_LEFT));
+            if (Math.abs(mv.velX) > 0.1) {
+                mv.setLastFacingLeft(mv.velX < 0);
+            }
+            score += from.mouseCarried[i];
+            hash = 31 * (31 * (31 * hash + x) + y) + (alive ? 2 : 0) + (carrying ? 1 : 0);
+        }
+        miceCount = n;
+        totalScore = score;
+        stateHash = 31 * hash + (gameOver ? 1 : 0);
+
+        cheeseCoords = copyCoords(cheeseCoords, from.cheese, from.cheeseLength);
+        cheeseLength = from.cheeseLength;
+        holeCoords = copyCoords(holeCoords, from.holes, from.holeLength);
+        holeLength = from.holeLength;
+        itemsHash = 31 * hash(cheeseCoords, cheeseLength) + hash(holeCoords, holeLength);
+    }
+
+    // Предсказанная позиция своего персонажа вместо интерполированной
+    void overrideCat(int x, int y, int vx, int vy) {
+        catX = x;
+        catY = y;
+        catVelX = vx;
+        catVelY = vy;
+        stateHash = 31 * (31 * stateHash + x) + y;
+    }
+
+    void overrideMouse(int id, int x, int y, int vx, int vy) {
+        for (int i = 0; i < miceCount; i++) {
+            MouseView mv = mice[i];
+            if (mv.id != id || !mv.alive) continue;
+            mv.x = x;
+            mv.y = y;
+            mv.velX = vx;
+            mv.velY = vy;
+            if (vx != 0) mv.setLastFacingLeft(vx < 0);
+            stateHash = 31 * (31 * stateHash + x) + y;
+            return;
+        }
+    }
+
+    void clear() {
+        gameOver = false;
+        winner = NO_WINNER;
+        catX = catY = 0;
+        catVelX = catVelY = 0;
+        totalScore = 0;
+        miceCount = 0;
+        cheeseLength = 0;
+        holeLength = 0;
+        itemsHash = 0;
+        stateHash = 0;
+    }
+
+    private static int lerp(int a, int b, double alpha) {
+        return (int) Math.round(a + (b - a) * alpha);
+    }
+
+    private static int clamp(double v, int max) {
+        return (int) Math.round(Math.max(0, Math.min(v, max)));
+    }
+
+    private static int hash(int[] coords, int length) {
+        int h = length;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + coords[i];
+        }
+        return h;
+    }
+
+    private static int[] copyCoords(int[] target, int[] source, int length) {
+        if (length > target.length) {
+            target = new int[length];
+        }
+        System.arraycopy(source, 0, target, 0, length);
+        return target;
+    }
+}
@@ -0,0 +1,203 @@
+package ru.itis.client.ui;
+
+import ru.itis.protocol.StateBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Последние снимки сервера, привязанные к локальным часам. Отрисовка показывает мир
+ * с задержкой delay позади самого свежего снимка: между двумя снимками позиции интерполируются,
+ * а если следующий снимок опоздал - экстраполируются по скорости, но не дольше MAX_EXTRAPOLATION_NANOS.
+ * <p>
+ * Пишет поток сети, читает поток отрисовки - каждый ровно один поток, блокировок нет.
+ * Писатель держит своё кольцо снимков и после каждого изменения публикует вид - список снимков
+ * от нового к старому - через тройной буфер, как раньше кадры. Снимки не меняются, пока их видно
+ * хоть из одного вида: у каждого счётчик ссылок, и писатель переиспользует только освободившиеся.
+ */
+final class SnapshotTimeline {
+    private static final int CAPACITY = 32;
+    private static final long MAX_EXTRAPOLATION_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    // Расхождение больше этого значит, что сервер стоял или перезапустился - привязываемся заново
+    private static final long RESYNC_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final double OFFSET_SMOOTHING = 0.1;
+    private static final int INDEX = 0b11;
+    private static final int FRESH = 0b100;
+
+    // refs - в скольких местах лежит снимок: кольцо писателя и опубликованные виды; трогает только писатель
+    private static final class Entry {
+        final StateBuffer state = new StateBuffer();
+        int refs;
+    }
+
+    private static final class View {
+        final Entry[] entries = new Entry[CAPACITY];
+        int count;
+        long offsetNanos;
+    }
+
+    private final long delayNanos;
+
+    // Дальше до front всё принадлежит потоку сети
+    private final Entry[] ring = new Entry[CAPACITY];
+    private int newest = -1;
+    private int count;
+    // Локальное System.nanoTime() минус время сервера, сглаженное по приходам снимков
+    private long offsetNanos;
+    // Все когда-либо выделенные снимки; растёт только при прогреве
+    private final List<Entry> pool = new ArrayList<>();
+
+    private final View[] views = {new View(), new View(), new View()};
+    private final AtomicInteger middle = new AtomicInteger(2);
+    private int back = 0;
+    // Принадлежит потоку отрисовки
+    private int front = 1;
+
+    SnapshotTimeline(long delayMillis) {
+        this.delayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+    }
+
+    // Вызывается из потока сети; state копируется
+    void add(StateBuffer state, long receivedNanos) {
+        Entry last = count == 0 ? null : ring[newest];
+        if (last != null && state.tick < last.state.tick) {
+            drop();
+            last = null;
+        }
+
+        long sample = receivedNanos - tickNanos(state.tick, state.tickRate);
+        if (last == null || Math.abs(sample - offsetNanos) > RESYNC_NANOS) {
+            offsetNanos = sample;
+        } else {
+            offsetNanos += (long) ((sample - offsetNanos) * OFFSET_SMOOTHING);
+        }
+
+        Entry entry = obtain();
+        entry.state.copyFrom(state);
+        entry.refs++;
+        // Внеочередной снимок на том же тике (вход/выход игрока) заменяет предыдущий
+        if (last != null && state.tick == last.state.tick) {
+            release(last);
+        } else {
+            newest = (newest + 1) % CAPACITY;
+            if (count == CAPACITY) {
+                release(ring[newest]);
+            } else {
+                count++;
+            }
+        }
+        ring[newest] = entry;
+        publish();
+    }
+
+    // Вызывается из потока сети
+    void clear() {
+        drop();
+        publish();
+    }
+
+    /**
+     * Заполняет out состоянием мира на момент nowNanos - delay. Вызывается из потока отрисовки.
+     */
+    void sample(long nowNanos, RenderFrame out) {
+        View view = acquire();
+        if (view.count == 0) {
+            out.clear();
+            return;
+        }
+        StateBuffer from = null, to = null;
+        int rate = rate(view.entries[0].state.tickRate);
+        double tick = renderTick(nowNanos, view.offsetNanos, rate);
+        for (int i = 0; i < view.count; i++) {
+            StateBuffer s = view.entries[i].state;
+            if (s.tick <= tick) {
+                from = s;
+                break;
+            }
+            to = s;
+        }
+        if (from == null) {
+            // Показываемое время раньше самого старого снимка
+            from = to;
+            to = null;
+            tick = from.tick;
+        } else if (to == null) {
+            tick = Math.min(tick, from.tick + MAX_EXTRAPOLATION_NANOS * (double) rate / TimeUnit.SECONDS.toNanos(1));
+        }
+        out.fill(from, to, tick);
+    }
+
+    /**
+     * Тик сервера, который показывается в момент nowNanos, или -1, если снимков ещё нет.
+     * Вызывается из потока сети.
+     */
+    int viewTick(long nowNanos) {
+        if (count == 0) return -1;
+        return (int) Math.max(0, renderTick(nowNanos, offsetNanos, rate(ring[newest].state.tickRate)));
+    }
+
+    private void drop() {
+        for (int i = 0; i < count; i++) {
+            int slot = (newest - i + CAPACITY) % CAPACITY;
+            release(ring[slot]);
+            ring[slot] = null;
+        }
+        newest = -1;
+        count = 0;
+    }
+
+    private void publish() {
+        View view = views[back];
+        for (int i = 0; i < count; i++) {
+            Entry entry = ring[(newest - i + CAPACITY) % CAPACITY];
+            entry.refs++;
+            view.entries[i] = entry;
+        }
+        view.count = count;
+        view.offsetNanos = offsetNanos;
+        back = middle.getAndSet(back | FRESH) & INDEX;
+
+        // Вернувшийся вид отрисовка уже не держит - его снимки можно отпустить
+        View old = views[back];
+        for (int i = 0; i < old.count; i++) {
+            release(old.entries[i]);
+            old.entries[i] = null;
+        }
+        old.count = 0;
+    }
+
+    private View acquire() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX;
+        }
+        return views[front];
+    }
+
+    private Entry obtain() {
+        for (int i = 0; i < pool.size(); i++) {
+            Entry entry = pool.get(i);
+            if (entry.refs == 0) return entry;
+        }
+        Entry entry = new Entry();
+        pool.add(entry);
+        return entry;
+    }
+
+    private static void release(Entry entry) {
+        entry.refs--;
+    }
+
+    private double renderTick(long nowNanos, long offsetNanos, int rate) {
+        return (nowNanos - offsetNanos - delayNanos) * (double) rate / TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private static long tickNanos(int tick, int tickRate) {
+        return tick * TimeUnit.SECONDS.toNanos(1) / rate(tickRate);
+    }
+
+    private static int rate(int tickRate) {
+        return tickRate > 0 ? tickRate : 60;
+    }
+}
@@ -0,0 +1,43 @@
+package ru.itis.client.ui.sprites;
+
+/**
+ * Все анимации игры. Ordinal служит индексом в массивах SpriteManager вместо поиска по строке.
+ */
+public enum Sprite {
+    CAT_IDLE_LEFT("/sprites/cat/LeftIdle.png", 4),
+    CAT_IDLE_RIGHT("/sprites/cat/RightIdle.png", 4),
+    CAT_RUN_LEFT("/sprites/cat/RunLeft.png", 6), // 6 кадров для бега
+    CAT_RUN_RIGHT("/sprites/cat/RunRight.png", 6),
+    MOUSE_IDLE_LEFT("/sprites/mouse/LeftIdle.png", 4),
+    MOUSE_IDLE_RIGHT("/sprites/mouse/RigthIdle.png", 4),
+    MOUSE_RUN_LEFT("/sprites/mouse/RunLeft.png", 4),
+    MOUSE_RUN_RIGHT("/sprites/mouse/RunRight.png", 4),
+    MOUSE_IDLE_LEFT_CHEESE("/sprites/mouse/LeftIdleCheese.png", 4),
+    MOUSE_IDLE_RIGHT_CHEESE("/sprites/mouse/RigthIdleCheese.png", 4),
+    MOUSE_RUN_LEFT_CHEESE("/sprites/mouse/RunLeftCheese.png", 4),
+    MOUSE_RUN_RIGHT_CHEESE("/sprites/mouse/RunRightCheese.png", 4),
+    CHEESE("/sprites/items/cheese.png", 1),
+    HOLE("/sprites/items/hole.png", 1);
+
+    final String path;
+    final int frames;
+
+    Sprite(String path, int frames) {
+        this.path = path;
+        this.frames = frames;
+    }
+
+    public static Sprite cat(boolean running, boolean facingLeft) {
+        if (running) return facingLeft ? CAT_RUN_LEFT : CAT_RUN_RIGHT;
+        return facingLeft ? CAT_IDLE_LEFT : CAT_IDLE_RIGHT;
+    }
+
+    public static Sprite mouse(boolean running, boolean facingLeft, boolean carryingCheese) {
+        if (running) {
+            if (facingLeft) return carryingCheese ? MOUSE_RUN_LEFT_CHEESE : MOUSE_RUN_LEFT;
+            return carryingCheese ? MOUSE_RUN_RIGHT_CHEESE : MOUSE_RUN_RIGHT;
+        }
+        if (facingLeft) return carryingCheese ? MOUSE_IDLE_LEFT_CHEESE : MOUSE_IDLE_LEFT;
+        return carryingCheese ? MOUSE_IDLE_RIGHT_CHEESE : MOUSE_IDLE_RIGHT;
+    }
+}
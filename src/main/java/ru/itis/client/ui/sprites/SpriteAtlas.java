@@ -0,0 +1,85 @@
+package ru.itis.client.ui.sprites;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Несколько больших страниц, в которые по полкам укладываются мелкие изображения.
+ * Отрисовка берёт область страницы, так что все спрайты живут в паре изображений,
+ * а не в десятках отдельных. Не потокобезопасен.
+ */
+final class SpriteAtlas {
+    private static final int PADDING = 1;
+
+    static final class Region {
+        final BufferedImage page;
+        final int x, y, width, height;
+
+        Region(BufferedImage page, int x, int y, int width, int height) {
+            this.page = page;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        void draw(Graphics g, int dx, int dy) {
+            g.drawImage(page, dx, dy, dx + width, dy + height, x, y, x + width, y + height, null);
+        }
+
+        void drawScaled(Graphics g, int dx, int dy, int dw, int dh) {
+            g.drawImage(page, dx, dy, dx + dw, dy + dh, x, y, x + width, y + height, null);
+        }
+    }
+
+    private final int pageSize;
+    private final List<BufferedImage> pages = new ArrayList<>();
+    private BufferedImage page;
+    private int shelfX, shelfY, shelfHeight;
+
+    SpriteAtlas(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    Region add(BufferedImage image) {
+        int w = image.getWidth(), h = image.getHeight();
+        if (w > pageSize || h > pageSize) {
+            // Не помещается на страницу - отдельная страница под одно изображение
+            BufferedImage own = SpriteManager.createCompatibleImage(w, h, Transparency.TRANSLUCENT);
+            copy(image, own, 0, 0);
+            pages.add(own);
+            return new Region(own, 0, 0, w, h);
+        }
+        if (page == null || shelfX + w > pageSize) {
+            shelfX = 0;
+            shelfY += shelfHeight + PADDING;
+            shelfHeight = 0;
+        }
+        if (page == null || shelfY + h > pageSize) {
+            page = SpriteManager.createCompatibleImage(pageSize, pageSize, Transparency.TRANSLUCENT);
+            pages.add(page);
+            shelfX = shelfY = shelfHeight = 0;
+        }
+        Region region = new Region(page, shelfX, shelfY, w, h);
+        copy(image, page, shelfX, shelfY);
+        shelfX += w + PADDING;
+        shelfHeight = Math.max(shelfHeight, h);
+        return region;
+    }
+
+    int pageCount() {
+        return pages.size();
+    }
+
+    private static void copy(BufferedImage image, BufferedImage target, int x, int y) {
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(image, x, y, null);
+        } finally {
+            g.dispose();
+        }
+    }
+}
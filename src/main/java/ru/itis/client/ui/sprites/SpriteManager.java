@@ -2,196 +2,225 @@ package ru.itis.client.ui.sprites;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
-import java.awt.geom.RoundRectangle2D;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 public class SpriteManager {
-    private static SpriteManager instance;
-    
-    private Map<String, List<BufferedImage>> animations;
-    private Map<String, Integer> currentFrames;
-    private long lastFrameTime;
     private static final int FRAME_DELAY = 100; // миллисекунды между кадрами
-    
+    private static final int SHADOW_OFFSET = 3;
+    private static final float SHADOW_ALPHA = 0.3f;
+    private static final float FADED_ALPHA = 0.5f;
+
+    private static final String BACKGROUND = "/sprites/background/background.png";
+
+    // Исходные кадры всех листов (64x64) помещаются на одну страницу
+    private final SpriteAtlas sourceAtlas = new SpriteAtlas(1024);
+    private final SpriteAtlas scaledAtlas = new SpriteAtlas(1024);
+    private final SpriteAtlas.Region[][] animations = new SpriteAtlas.Region[Sprite.values().length][];
+
     private BufferedImage background;
-    
+
+    // Кадры, заранее отмасштабированные под размер отрисовки, чтобы в кадре было только копирование
+    private final ScaledAnimation[] scaled = new ScaledAnimation[Sprite.values().length];
+    private BufferedImage scaledBackground;
+
     private SpriteManager() {
-        animations = new HashMap<>();
-        currentFrames = new HashMap<>();
         loadSprites();
     }
-    
+
+    // Инициализация класса-холдера потокобезопасна и ленива
+    private static final class Holder {
+        static final SpriteManager INSTANCE = new SpriteManager();
+    }
+
     public static SpriteManager getInstance() {
-        if (instance == null) {
-            instance = new SpriteManager();
-        }
-        return instance;
+        return Holder.INSTANCE;
     }
-    
+
+    /**
+     * Запускает загрузку в фоне, пока открыто окно подключения; getInstance() дождётся её.
+     */
+    public static void preloadAsync() {
+        Thread.ofPlatform().daemon().name("sprite-loader").start(SpriteManager::getInstance);
+    }
+
     private void loadSprites() {
-        try {
-            background = ImageIO.read(getClass().getResourceAsStream("/sprites/background/background.png"));
-            
-            BufferedImage catLeftIdleSheet = ImageIO.read(getClass().getResourceAsStream("/sprites/cat/LeftIdle.png"));
-            animations.put("LeftIdle", drawIdleSprites(catLeftIdleSheet));
-
-            BufferedImage catRightIdleSheet = ImageIO.read(getClass().getResourceAsStream("/sprites/cat/RightIdle.png"));
-            animations.put("RightIdle", drawIdleSprites(catRightIdleSheet));
-            
-            BufferedImage catRunRightSheet = ImageIO.read(getClass().getResourceAsStream("/sprites/cat/RunRight.png"));
-            animations.put("cat_run_right", drawWalkSprites(catRunRightSheet));
-            
-            BufferedImage catRunLeftSheet = ImageIO.read(getClass().getResourceAsStream("/sprites/cat/RunLeft.png"));
-            animations.put("cat_run_left", drawWalkSprites(catRunLeftSheet));
-            
-            BufferedImage mouseLeftIdleSheet = ImageIO.read(getClass().getResourceAsStream("/sprites/mouse/LeftIdle.png"));
-            animations.put("left_idle", drawIdleSprites(mouseLeftIdleSheet));
-
-            BufferedImage mouseRightIdleSheet = ImageIO.read(getClass().getResourceAsStream("/sprites/mouse/RigthIdle.png"));
-            animations.put("right_idle", drawIdleSprites(mouseRightIdleSheet));
-
-            BufferedImage mouseRunRightSheet = ImageIO.read(getClass().getResourceAsStream("/sprites/mouse/RunRight.png"));
-            animations.put("mouse_run_right", drawIdleSprites(mouseRunRightSheet));
-            
-            BufferedImage mouseRunLeftSheet = ImageIO.read(getClass().getResourceAsStream("/sprites/mouse/RunLeft.png"));
-            animations.put("mouse_run_left", drawIdleSprites(mouseRunLeftSheet));
-            
-            BufferedImage mouseLeftIdleCheeseSheet = ImageIO.read(getClass().getResourceAsStream("/sprites/mouse/LeftIdleCheese.png"));
-            animations.put("left_idle_cheese", drawIdleSprites(mouseLeftIdleCheeseSheet));
-
-            BufferedImage mouseRightIdleCheeseSheet = ImageIO.read(getClass().getResourceAsStream("/sprites/mouse/RigthIdleCheese.png"));
-            animations.put("right_idle_cheese", drawIdleSprites(mouseRightIdleCheeseSheet));
-
-            BufferedImage mouseRunRightCheeseSheet = ImageIO.read(getClass().getResourceAsStream("/sprites/mouse/RunRightCheese.png"));
-            animations.put("mouse_run_right_cheese", drawIdleSprites(mouseRunRightCheeseSheet));
-            
-            BufferedImage mouseRunLeftCheeseSheet = ImageIO.read(getClass().getResourceAsStream("/sprites/mouse/RunLeftCheese.png"));
-            animations.put("mouse_run_left_cheese", drawIdleSprites(mouseRunLeftCheeseSheet));
-
-            BufferedImage cheeseImg = ImageIO.read(getClass().getResourceAsStream("/sprites/items/cheese.png"));
-            if (cheeseImg != null) {
-                animations.put("cheese", List.of(cheeseImg));
-            }
-            
-            BufferedImage holeImg = ImageIO.read(getClass().getResourceAsStream("/sprites/items/hole.png"));
-            if (holeImg != null) {
-                animations.put("hole", List.of(holeImg));
+        long start = System.nanoTime();
+        ImageIO.setUseCache(false);
+
+        // Декодирование PNG - самая долгая часть, листы независимы друг от друга
+        List<String> paths = new ArrayList<>();
+        paths.add(BACKGROUND);
+        for (Sprite sprite : Sprite.values()) {
+            paths.add(sprite.path);
+        }
+        List<BufferedImage> images = paths.parallelStream().map(SpriteManager::read).toList();
+
+        background = images.get(0);
+        for (Sprite sprite : Sprite.values()) {
+            pack(sprite, images.get(sprite.ordinal() + 1));
+        }
+        System.out.printf("[Client] Sprites loaded in %d ms, %d atlas page(s)%n",
+                (System.nanoTime() - start) / 1_000_000, sourceAtlas.pageCount());
+    }
+
+    private static BufferedImage read(String path) {
+        try (InputStream in = SpriteManager.class.getResourceAsStream(path)) {
+            if (in == null) {
+                System.err.println("Error loading sprites: no resource " + path);
+                return null;
             }
-            
-        } catch (IOException | IllegalArgumentException e) {
+            return ImageIO.read(in);
+        } catch (IOException e) {
             e.printStackTrace();
             System.err.println("Error loading sprites: " + e.getMessage());
+            return null;
         }
     }
 
-    private List<BufferedImage> drawWalkSprites(BufferedImage RunSheet) {
-        List<BufferedImage> Run = new ArrayList<>();
-        if (RunSheet != null) {
-            int frameWidth = RunSheet.getWidth() / 6; // 6 кадров для бега
-            int frameHeight = RunSheet.getHeight();
-            for (int i = 0; i < 6; i++) {
-                Run.add(RunSheet.getSubimage(i * frameWidth, 0, frameWidth, frameHeight));
-            }
+    private void pack(Sprite sprite, BufferedImage image) {
+        if (image == null) return;
+        int frameWidth = image.getWidth() / sprite.frames;
+        int frameHeight = image.getHeight();
+        SpriteAtlas.Region[] frames = new SpriteAtlas.Region[sprite.frames];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = sourceAtlas.add(image.getSubimage(i * frameWidth, 0, frameWidth, frameHeight));
         }
-        return Run;
+        animations[sprite.ordinal()] = frames;
     }
 
-    private List<BufferedImage> drawIdleSprites(BufferedImage RunSheet) {
-        List<BufferedImage> Run = new ArrayList<>();
-        if (RunSheet != null) {
-            int frameWidth = RunSheet.getWidth() / 4; // 4 кадра для бега
-            int frameHeight = RunSheet.getHeight();
-            for (int i = 0; i < 4; i++) {
-                Run.add(RunSheet.getSubimage(i * frameWidth, 0, frameWidth, frameHeight));
+    /**
+     * Кадр анимации по монотонным часам: timeMillis - время отрисовки плюс фаза сущности,
+     * так что разные сущности не обязаны анимироваться синхронно, а общего изменяемого состояния нет.
+     */
+    public static int frameAt(Sprite sprite, long timeMillis) {
+        return (int) Math.floorMod(timeMillis / FRAME_DELAY, (long) sprite.frames);
+    }
+
+    public void drawBackground(Graphics g, int width, int height) {
+        if (background == null || width <= 0 || height <= 0) return;
+        // Размер окна изменился - масштабируем фон заново
+        if (scaledBackground == null || scaledBackground.getWidth() != width || scaledBackground.getHeight() != height) {
+            scaledBackground = createCompatibleImage(width, height, Transparency.OPAQUE);
+            Graphics2D g2d = scaledBackground.createGraphics();
+            try {
+                setScaleHints(g2d);
+                g2d.drawImage(background, 0, 0, width, height, null);
+            } finally {
+                g2d.dispose();
             }
         }
-        return Run;
-    }
-
-    public void updateAnimation() {
-        long currentTime = System.currentTimeMillis();
-        if (currentTime - lastFrameTime > FRAME_DELAY) {
-            // Обновляем все анимации
-            for (String key : animations.keySet()) {
-                int currentFrame = currentFrames.getOrDefault(key, 0);
-                List<BufferedImage> frames = animations.get(key);
-                if (frames != null && !frames.isEmpty()) {
-                    currentFrame = (currentFrame + 1) % frames.size();
-                    currentFrames.put(key, currentFrame);
-                }
-            }
-            lastFrameTime = currentTime;
+        g.drawImage(scaledBackground, 0, 0, null);
+    }
+    
+    public void drawSprite(Graphics g, Sprite sprite, long timeMillis, int x, int y, int width, int height) {
+        ScaledAnimation anim = scaledAnimation(sprite, width, height);
+        if (anim != null) {
+            anim.frames[frameAt(sprite, timeMillis)].draw(g, x, y);
         }
     }
 
-    public void drawAnimatedScore(Graphics g, int x, int y, int score, long gameTime) {
-        Graphics2D g2d = (Graphics2D) g;
-
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-        double pulse = 0.7 + 0.3 * Math.abs(Math.sin(gameTime / 500.0));
-
-        int width = 120;
-        int height = 40;
-
-        GradientPaint gradient = new GradientPaint(
-                x, y, new Color(139, 69, 19, 200),    // Saddle brown
-                x, y + height, new Color(101, 67, 33, 200)  // Dark brown
-        );
-
-        g2d.setPaint(gradient);
-        g2d.fill(new RoundRectangle2D.Float(x - width/2, y - height/2, width, height, 15, 15));
+    public void drawSpriteWithShadow(Graphics g, Sprite sprite, long timeMillis, int x, int y, int width, int height) {
+        drawBaked(g, sprite, timeMillis, x, y, width, height, false);
+    }
 
-        g2d.setStroke(new BasicStroke(2f));
-        g2d.setColor(new Color(218, 165, 32, (int)(100 * pulse))); // Golden rod
-        g2d.draw(new RoundRectangle2D.Float(x - width/2, y - height/2, width, height, 15, 15));
+    /**
+     * Полупрозрачный вариант с тенью, например для пойманной мыши.
+     */
+    public void drawFadedSpriteWithShadow(Graphics g, Sprite sprite, long timeMillis, int x, int y, int width, int height) {
+        drawBaked(g, sprite, timeMillis, x, y, width, height, true);
+    }
 
-        Font scoreFont = new Font("Arial", Font.BOLD, (int)(24 * pulse));
-        g2d.setFont(scoreFont);
+    // Тень запечена в кадр, поэтому спрайт рисуется одним копированием без смены AlphaComposite
+    private void drawBaked(Graphics g, Sprite sprite, long timeMillis, int x, int y, int width, int height, boolean faded) {
+        ScaledAnimation anim = scaledAnimation(sprite, width, height);
+        if (anim == null) return;
+        SpriteAtlas.Region[] baked = faded ? anim.faded : anim.shadowed;
+        if (baked == null) {
+            baked = new SpriteAtlas.Region[anim.frames.length];
+            for (int i = 0; i < baked.length; i++) {
+                baked[i] = scaledAtlas.add(withShadow(anim.frames[i], faded ? FADED_ALPHA : 1f));
+            }
+            if (faded) anim.faded = baked;
+            else anim.shadowed = baked;
+        }
+        baked[frameAt(sprite, timeMillis)].draw(g, x, y);
+    }
 
-        String scoreText = "Счёт: " + score;
-        FontMetrics fm = g2d.getFontMetrics();
-        int textWidth = fm.stringWidth(scoreText);
+    private ScaledAnimation scaledAnimation(Sprite sprite, int width, int height) {
+        ScaledAnimation anim = scaled[sprite.ordinal()];
+        if (anim == null || anim.width != width || anim.height != height) {
+            SpriteAtlas.Region[] source = animations[sprite.ordinal()];
+            if (source == null) return null;
+            SpriteAtlas.Region[] frames = new SpriteAtlas.Region[source.length];
+            for (int i = 0; i < frames.length; i++) {
+                frames[i] = scaledAtlas.add(scale(source[i], width, height));
+            }
+            anim = new ScaledAnimation(width, height, frames);
+            scaled[sprite.ordinal()] = anim;
+        }
+        return anim;
+    }
 
-        g2d.setColor(new Color(0, 0, 0, 100));
-        g2d.drawString(scoreText, x - textWidth/2 + 2, y + fm.getAscent()/2 + 2);
+    // Масштабирует один раз с качественной интерполяцией
+    private static BufferedImage scale(SpriteAtlas.Region source, int width, int height) {
+        BufferedImage target = createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+        Graphics2D g = target.createGraphics();
+        try {
+            setScaleHints(g);
+            source.drawScaled(g, 0, 0, width, height);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
 
-        g2d.setColor(new Color(255, 223, 0)); // Gold
-        g2d.drawString(scoreText, x - textWidth/2, y + fm.getAscent()/2);
+    private static BufferedImage withShadow(SpriteAtlas.Region sprite, float alpha) {
+        BufferedImage target = createCompatibleImage(sprite.width + SHADOW_OFFSET,
+                sprite.height + SHADOW_OFFSET, Transparency.TRANSLUCENT);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, SHADOW_ALPHA * alpha));
+            sprite.draw(g, SHADOW_OFFSET, SHADOW_OFFSET);
+            g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha));
+            sprite.draw(g, 0, 0);
+        } finally {
+            g.dispose();
+        }
+        return target;
     }
 
-    public void drawBackground(Graphics g, int width, int height) {
-        g.drawImage(background, 0, 0, width, height, null);
+    private static void setScaleHints(Graphics2D g) {
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
     }
-    
-    public void drawIdleSprites(Graphics g, String type, int x, int y, int width, int height, double angle) {
-        List<BufferedImage> frames = animations.get(type);
-        if (frames != null && !frames.isEmpty()) {
-            int currentFrame = currentFrames.getOrDefault(type, 0);
-            if (currentFrame < frames.size()) {
-                BufferedImage sprite = frames.get(currentFrame);
-                Graphics2D g2d = (Graphics2D) g;
-                g2d.drawImage(sprite, x, y, width, height, null);
-            }
+
+    public static BufferedImage createCompatibleImage(int width, int height, int transparency) {
+        if (GraphicsEnvironment.isHeadless()) {
+            return new BufferedImage(width, height, transparency == Transparency.OPAQUE
+                    ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE);
         }
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                .getDefaultConfiguration().createCompatibleImage(width, height, transparency);
     }
-    
-    public void drawSpriteWithShadow(Graphics g, String type, int x, int y, int width, int height, double angle) {
-        Graphics2D g2d = (Graphics2D) g;
-        g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.3f));
-        drawIdleSprites(g, type, x + 3, y + 3, width, height, angle);
 
-        g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1.0f));
-        drawIdleSprites(g, type, x, y, width, height, angle);
+    private static final class ScaledAnimation {
+        final int width, height;
+        final SpriteAtlas.Region[] frames;
+        SpriteAtlas.Region[] shadowed;
+        SpriteAtlas.Region[] faded;
+
+        ScaledAnimation(int width, int height, SpriteAtlas.Region[] frames) {
+            this.width = width;
+            this.height = height;
+            this.frames = frames;
+        }
     }
 
-    public boolean isLoaded(String type) {
-        List<BufferedImage> frames = animations.get(type);
-        return frames != null && !frames.isEmpty();
+    public boolean isLoaded(Sprite sprite) {
+        return animations[sprite.ordinal()] != null;
     }
-} 
\ No newline at end of file
+}
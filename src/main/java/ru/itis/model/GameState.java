@@ -1,7 +1,10 @@
 package ru.itis.model;
 
+import ru.itis.protocol.StateSnapshot;
+
 import java.awt.Point;
 import java.util.*;
+import java.util.function.IntConsumer;
 
 public class GameState {
     private static final int HOLE_SIZE = 32;
@@ -9,6 +12,11 @@ public class GameState {
     private static final int CAT_CATCH_RADIUS = 25;
     private static final int MOUSE_PICKUP_RADIUS = 20;
     private static final int HOLE_ENTER_RADIUS = 25;
+    // Не меньше обычных радиусов, чтобы им хватало окрестности 3x3; поимка с откатом
+    // расширяет радиус на смещение мышей и задевает больше ячеек, сетка это учитывает
+    private static final int GRID_CELL = 32;
+    // Глубина истории позиций мышей для компенсации задержки кота (~0.5 с при 60 Гц)
+    private static final int HISTORY_TICKS = 32;
 
     private static final double CAT_SPEED_MULTIPLIER = 1.5;
     private static final double MOUSE_SPEED_MULTIPLIER = 1.6;
@@ -20,16 +28,43 @@ public class GameState {
 
     private int catX, catY;
     private int catVx, catVy;
+    private int catInputSeq;
 
-    private final Map<String, MouseInfo> miceMap = new HashMap<>();
+    private final MouseStore mice = new MouseStore();
     private final List<Point> cheeseList = new ArrayList<>();
     private final List<Point> holes = new ArrayList<>();
 
+    private final SpatialGrid cheeseGrid = new SpatialGrid(WIDTH, HEIGHT, GRID_CELL);
+    private final SpatialGrid holeGrid = new SpatialGrid(WIDTH, HEIGHT, GRID_CELL);
+    private final SpatialGrid miceGrid = new SpatialGrid(WIDTH, HEIGHT, GRID_CELL);
+    private final IntConsumer catchMouse = this::catchMouse;
+    private final IntConsumer catchRewound = this::catchRewound;
+
+    private final MouseHistory history = new MouseHistory(HISTORY_TICKS);
+    private int maxRewindTicks = 15;
+    // На сколько тиков отстаёт картинка у игрока-кота; пишется из потока чтения
+    private volatile int catViewLag = 0;
+    private int rewind;
+
     private boolean gameOver = false;
     private String winner = null;
 
+    private int[] cheeseCoords = new int[0];
+    private int[] holeCoords = new int[0];
+    // Номер снимка: растёт с каждой публикацией, клиенты подтверждают по нему полученное
+    private int version = 0;
+    private int tickRate = 60;
+    // Не сбрасывается между партиями, чтобы время на клиентах только росло
+    private int tick = 0;
+    private volatile StateSnapshot snapshot;
+
+    private final InputMailbox inputs = new InputMailbox();
+    private final InputMailbox.Consumer applyCatInput = (id, vx, vy, seq) -> applyCatVelocity(vx, vy, seq);
+    private final InputMailbox.Consumer applyMouseInput = this::applyMouseVelocity;
+
     public GameState() {
         initCheeseAndHoles();
+        publish();
     }
 
     private void initCheeseAndHoles() {
@@ -45,121 +80,205 @@ public class GameState {
         holes.add(new Point(WIDTH / 2, HEIGHT - HOLE_SIZE - 5));
         holes.add(new Point(HOLE_SIZE + 5, HEIGHT / 2));
         holes.add(new Point(WIDTH - HOLE_SIZE - 5, HEIGHT / 2));
+
+        cheeseCoords = toCoords(cheeseList);
+        holeCoords = toCoords(holes);
+
+        cheeseGrid.clear();
+        for (int i = 0; i < cheeseList.size(); i++) {
+            cheeseGrid.insert(i, cheeseList.get(i).x, cheeseList.get(i).y);
+        }
+        holeGrid.clear();
+        for (int i = 0; i < holes.size(); i++) {
+            holeGrid.insert(i, holes.get(i).x, holes.get(i).y);
+        }
+    }
+
+    private static int[] toCoords(List<Point> points) {
+        int[] coords = new int[points.size() * 2];
+        for (int i = 0; i < points.size(); i++) {
+            coords[i * 2] = points.get(i).x;
+            coords[i * 2 + 1] = points.get(i).y;
+        }
+        return coords;
+    }
+
+    // Вызывается под монитором после каждого изменения мира; снимок - сразу тот, что уходит клиентам
+    private void publish() {
+        int n = mice.size();
+        int[] ids = new int[n], xs = new int[n], ys = new int[n], vxs = new int[n], vys = new int[n];
+        int[] flags = new int[n], carried = new int[n], inputSeqs = new int[n];
+        int i = 0;
+        for (int s = 0, limit = mice.limit(); s < limit; s++) {
+            if (!mice.isUsed(s)) continue;
+            ids[i] = mice.ids[s];
+            xs[i] = mice.x[s];
+            ys[i] = mice.y[s];
+            vxs[i] = mice.vx[s];
+            vys[i] = mice.vy[s];
+            flags[i] = StateSnapshot.mouseFlags(mice.has(s, MouseStore.ALIVE),
+                    mice.has(s, MouseStore.CARRYING_CHEESE), mice.has(s, MouseStore.FACING_LEFT));
+            carried[i] = mice.delivered[s];
+            inputSeqs[i] = mice.inputSeq[s];
+            i++;
+        }
+        snapshot = new StateSnapshot(++version, tick, tickRate, gameOver, winner,
+                catX, catY, catVx, catVy, catInputSeq,
+                ids, xs, ys, vxs, vys, flags, carried, inputSeqs, cheeseCoords, holeCoords);
+    }
+
+    /**
+     * Последний опубликованный снимок; читается без блокировок.
+     */
+    public StateSnapshot getSnapshot() {
+        return snapshot;
     }
 
     public synchronized void reset() {
         catX = WIDTH / 2;
         catY = HEIGHT / 2;
         catVx = catVy = 0;
-        miceMap.clear();
+        catInputSeq = 0;
+        mice.clear();
+        miceGrid.clear();
+        history.clear();
+        catViewLag = 0;
+        inputs.clear();
         gameOver = false;
         winner = null;
         initCheeseAndHoles();
-        Random rnd = new Random();
-        List<Point> holes = getHoles();
-        for (String mouseId : miceMap.keySet()) {
-            Point hole = holes.get(rnd.nextInt(holes.size()));
-            int x = hole.x + rnd.nextInt(41) - 20;
-            int y = hole.y + rnd.nextInt(41) - 20;
-            x = Math.max(0, Math.min(WIDTH, x));
-            y = Math.max(0, Math.min(HEIGHT, y));
-
-            miceMap.get(mouseId).x = x;
-            miceMap.get(mouseId).y = y;
-        }
+        publish();
     }
 
     public synchronized void setTotalCheeseToWin(int total) {
         totalCheeseToWin = total;
     }
 
+    // Вызывается, когда кот достаётся игроку: у нового игрока своя нумерация ввода
     public synchronized void setCatPosition(int x, int y) {
         catX = x;
         catY = y;
+        catInputSeq = 0;
+        inputs.clearCat();
+        publish();
+    }
+    // Скорость применяется в начале следующего тика, без захвата монитора
+    public void setCatVelocity(int vx, int vy, int seq) {
+        inputs.postCat(vx, vy, seq);
+    }
+    public synchronized void addMouse(int mouseId, int x, int y) {
+        int slot = mice.add(mouseId, x, y);
+        miceGrid.insert(slot, x, y);
+        history.fill(slot, x, y);
+        inputs.remove(mouseId);
+        publish();
+    }
+    public synchronized void removeMouse(int mouseId) {
+        int slot = mice.remove(mouseId);
+        if (slot >= 0) {
+            miceGrid.remove(slot);
+        }
+        inputs.remove(mouseId);
+        publish();
     }
-    public synchronized void setCatVelocity(int vx, int vy) {
-        catVx = (int)(vx * CAT_SPEED_MULTIPLIER);
-        catVy = (int)(vy * CAT_SPEED_MULTIPLIER);
+    public void setMouseVelocity(int mouseId, int vx, int vy, int seq) {
+        inputs.postMouse(mouseId, vx, vy, seq);
     }
-    public synchronized void addMouse(String mouseId, int x, int y) {
-        MouseInfo m = new MouseInfo();
-        m.x = x;
-        m.y = y;
-        m.alive = true;
-        miceMap.put(mouseId, m);
+
+    // Тиков в секунду; уходит в снимках, чтобы клиент переводил тики во время
+    public synchronized void setTickRate(int tickRate) {
+        this.tickRate = tickRate;
+        publish();
+    }
+
+    // 0 - поимка только по текущим позициям
+    public synchronized void setMaxRewindTicks(int ticks) {
+        maxRewindTicks = Math.max(0, Math.min(ticks, HISTORY_TICKS - 1));
+    }
+    /**
+     * Сколько тиков назад был мир, который сейчас видит игрок-кот. Применяется со следующего тика.
+     */
+    public void setCatViewLag(int ticks) {
+        catViewLag = Math.max(0, ticks);
+    }
+
+    // Правила движения открыты, чтобы клиент предсказывал своего персонажа точно так же
+    public static int catSpeed(int input) {
+        return (int)(input * CAT_SPEED_MULTIPLIER);
     }
-    public synchronized void removeMouse(String mouseId) {
-        miceMap.remove(mouseId);
+    public static int mouseSpeed(int input) {
+        return (int)(input * MOUSE_SPEED_MULTIPLIER);
     }
-    public synchronized void setMouseVelocity(String mouseId, int vx, int vy) {
-        MouseInfo mi = miceMap.get(mouseId);
-        if (mi != null) {
-            mi.vx = (int)(vx * MOUSE_SPEED_MULTIPLIER);
-            mi.vy = (int)(vy * MOUSE_SPEED_MULTIPLIER);
+    public static int clamp(int v, int max) {
+        return v < 0 ? 0 : Math.min(v, max);
+    }
+
+    private void applyCatVelocity(int vx, int vy, int seq) {
+        catVx = catSpeed(vx);
+        catVy = catSpeed(vy);
+        catInputSeq = seq;
+    }
+    private void applyMouseVelocity(int mouseId, int vx, int vy, int seq) {
+        int slot = mice.slotOf(mouseId);
+        if (slot >= 0) {
+            mice.vx[slot] = mouseSpeed(vx);
+            mice.vy[slot] = mouseSpeed(vy);
+            mice.inputSeq[slot] = seq;
         }
     }
 
     public synchronized void updatePositions() {
-        catX += catVx;
-        catY += catVy;
-        clampCat();
-        for (MouseInfo mi : miceMap.values()) {
-            if (!mi.alive) continue;
-            mi.x += mi.vx;
-            mi.y += mi.vy;
-            clampMouse(mi);
+        tick++;
+        inputs.drain(applyCatInput, applyMouseInput);
 
-            pickUpCheeseIfPossible(mi);
-            dropCheeseIfInHole(mi);
+        catX = clamp(catX + catVx, WIDTH);
+        catY = clamp(catY + catVy, HEIGHT);
+        int[] xs = mice.x, ys = mice.y;
+        int maxStep = 0;
+        for (int s = 0, n = mice.limit(); s < n; s++) {
+            if (!mice.isAlive(s)) continue;
+            maxStep = Math.max(maxStep, Math.abs(mice.vx[s]) + Math.abs(mice.vy[s]));
+            xs[s] = clamp(xs[s] + mice.vx[s], WIDTH);
+            ys[s] = clamp(ys[s] + mice.vy[s], HEIGHT);
+            miceGrid.move(s, xs[s], ys[s]);
+
+            pickUpCheeseIfPossible(s);
+            dropCheeseIfInHole(s);
         }
 
+        history.record(mice, maxStep);
+
         checkCatCatchesMice();
         checkIfMiceWin();
+        publish();
     }
 
-    private void clampCat() {
-        if (catX < 0) catX = 0;
-        if (catX > WIDTH) catX = WIDTH;
-        if (catY < 0) catY = 0;
-        if (catY > HEIGHT) catY = HEIGHT;
-    }
-    private void clampMouse(MouseInfo mi) {
-        if (mi.x < 0) mi.x = 0;
-        if (mi.x > WIDTH) mi.x = WIDTH;
-        if (mi.y < 0) mi.y = 0;
-        if (mi.y > HEIGHT) mi.y = HEIGHT;
-    }
 
-    private void pickUpCheeseIfPossible(MouseInfo mi) {
-        if (mi.carryingCheese) return;
-        for (Point c : cheeseList) {
-            double d = dist(mi.x, mi.y, c.x, c.y);
-            if (d <= MOUSE_PICKUP_RADIUS) {
-                mi.carryingCheese = true;
-                System.out.println("Mouse picked cheese at " + c);
-                break;
-            }
+    private void pickUpCheeseIfPossible(int s) {
+        if (mice.has(s, MouseStore.CARRYING_CHEESE)) return;
+        int c = cheeseGrid.findAny(mice.x[s], mice.y[s], MOUSE_PICKUP_RADIUS);
+        if (c >= 0) {
+            mice.set(s, MouseStore.CARRYING_CHEESE, true);
+            System.out.println("Mouse picked cheese at " + cheeseList.get(c));
         }
     }
 
-    private void dropCheeseIfInHole(MouseInfo mi) {
-        if (!mi.carryingCheese) return;
-        for (Point h : holes) {
-            double d = dist(mi.x, mi.y, h.x, h.y);
-            if (d <= HOLE_ENTER_RADIUS) {
-                mi.carryingCheese = false;
-                mi.carriedCheeseCount++;
-                System.out.println("Mouse delivered cheese => totalDelivered="+mi.carriedCheeseCount);
-                break;
-            }
+    private void dropCheeseIfInHole(int s) {
+        if (!mice.has(s, MouseStore.CARRYING_CHEESE)) return;
+        if (holeGrid.findAny(mice.x[s], mice.y[s], HOLE_ENTER_RADIUS) >= 0) {
+            mice.set(s, MouseStore.CARRYING_CHEESE, false);
+            mice.delivered[s]++;
+            System.out.println("Mouse delivered cheese => totalDelivered="+mice.delivered[s]);
         }
     }
 
 
     private void checkIfMiceWin() {
         int totalDelivered = 0;
-        for (var mi : miceMap.values()) {
-            totalDelivered += mi.carriedCheeseCount;
+        for (int s = 0, n = mice.limit(); s < n; s++) {
+            // Сыр ушедшей мыши (кик, стала котом) не засчитывается, как и раньше
+            if (!mice.isUsed(s)) continue;
+            totalDelivered += mice.delivered[s];
         }
         if (totalDelivered >= totalCheeseToWin) {
             gameOver = true;
@@ -170,23 +289,23 @@ public class GameState {
 
 
     private void checkCatCatchesMice() {
-        for (var e : miceMap.entrySet()) {
-            MouseInfo m = e.getValue();
-            if (!m.alive) continue;
-
-            if (Math.abs(m.vx) > 0.1) {
-                m.lastFacingLeft = m.vx < 0;
-            }
-
-            double d = dist(catX, catY, m.x, m.y);
-            if (d <= CAT_CATCH_RADIUS) {
-                m.alive = false;
-                m.carryingCheese = false;
+        int n = mice.limit();
+        for (int s = 0; s < n; s++) {
+            if (mice.isAlive(s) && mice.vx[s] != 0) {
+                mice.set(s, MouseStore.FACING_LEFT, mice.vx[s] < 0);
             }
         }
+        // Кот видит мышей с опозданием: проверяем по их позициям на тот тик, что был у него на экране.
+        // Сетка хранит текущие позиции, поэтому радиус широкой фазы расширяем на возможное смещение
+        rewind = Math.min(Math.min(catViewLag, maxRewindTicks), history.available());
+        if (rewind == 0) {
+            miceGrid.forEachWithin(catX, catY, CAT_CATCH_RADIUS, catchMouse);
+        } else {
+            miceGrid.forEachWithin(catX, catY, CAT_CATCH_RADIUS + history.maxDisplacement(rewind), catchRewound);
+        }
         boolean anyAlive = false;
-        for (var mi : miceMap.values()) {
-            if (mi.alive) {
+        for (int s = 0; s < n; s++) {
+            if (mice.isAlive(s)) {
                 anyAlive = true;
                 break;
             }
@@ -198,26 +317,28 @@ public class GameState {
         }
     }
 
-    private double dist(int x1, int y1, int x2, int y2) {
-        return Math.hypot(x2 - x1, y2 - y1);
+    private void catchRewound(int slot) {
+        long dx = history.x(rewind, slot) - catX;
+        long dy = history.y(rewind, slot) - catY;
+        if (dx * dx + dy * dy <= (long) CAT_CATCH_RADIUS * CAT_CATCH_RADIUS) {
+            catchMouse(slot);
+        }
     }
 
-    public static class MouseInfo {
-        public int x, y;
-        public int vx, vy;
-        public boolean alive;
-        public boolean carryingCheese;
-        public int carriedCheeseCount;
-        public boolean lastFacingLeft;
+    private void catchMouse(int slot) {
+        if (mice.isAlive(slot)) {
+            mice.set(slot, MouseStore.ALIVE, false);
+            mice.set(slot, MouseStore.CARRYING_CHEESE, false);
+        }
     }
 
-    public synchronized boolean isGameOver() { return gameOver; }
-    public synchronized String getWinner() { return winner; }
+    public boolean isGameOver() { return snapshot.gameOver; }
+    public int getTick() { return snapshot.tick; }
+    public String getWinner() { return snapshot.winner; }
     public synchronized int getCatX() { return catX; }
     public synchronized int getCatY() { return catY; }
     public synchronized int getCatVelX() { return catVx; }
     public synchronized int getCatVelY() { return catVy; }
-    public synchronized Map<String, MouseInfo> getAllMice() { return new HashMap<>(miceMap); }
     public synchronized List<Point> getCheeseList() { return new ArrayList<>(cheeseList); }
     public synchronized List<Point> getHoles() { return new ArrayList<>(holes); }
 }
@@ -0,0 +1,83 @@
+package ru.itis.model;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Последняя скорость, присланная каждым игроком, до начала следующего тика, вместе с номером ввода.
+ * Потоки чтения только перезаписывают ячейку, поток тика забирает все ячейки разом,
+ * так что монитор GameState на пути ввода не нужен.
+ */
+public class InputMailbox {
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int MAX_INPUT = Short.MAX_VALUE;
+
+    public interface Consumer {
+        void accept(int playerId, int vx, int vy, int seq);
+    }
+
+    private final AtomicLong cat = new AtomicLong(EMPTY);
+    private final Map<Integer, AtomicLong> mice = new ConcurrentHashMap<>();
+
+    public void postCat(int vx, int vy, int seq) {
+        cat.set(pack(vx, vy, seq));
+    }
+
+    public void postMouse(int mouseId, int vx, int vy, int seq) {
+        AtomicLong slot = mice.get(mouseId);
+        if (slot == null) {
+            slot = mice.computeIfAbsent(mouseId, id -> new AtomicLong(EMPTY));
+        }
+        slot.set(pack(vx, vy, seq));
+    }
+
+    /**
+     * Вызывается только потоком тика.
+     */
+    public void drain(Consumer catConsumer, Consumer mouseConsumer) {
+        long v = cat.getAndSet(EMPTY);
+        if (v != EMPTY) {
+            catConsumer.accept(0, unpackX(v), unpackY(v), unpackSeq(v));
+        }
+        for (Map.Entry<Integer, AtomicLong> e : mice.entrySet()) {
+            v = e.getValue().getAndSet(EMPTY);
+            if (v != EMPTY) {
+                mouseConsumer.accept(e.getKey(), unpackX(v), unpackY(v), unpackSeq(v));
+            }
+        }
+    }
+
+    // Непрочитанный ввод прежнего игрока с его номером не должен достаться новому
+    public void clearCat() {
+        cat.set(EMPTY);
+    }
+
+    public void remove(int mouseId) {
+        mice.remove(mouseId);
+    }
+
+    public void clear() {
+        cat.set(EMPTY);
+        mice.clear();
+    }
+
+    // vx и vy по 16 бит, номер ввода - младшие 32; -32768 не бывает, поэтому EMPTY ни с чем не совпадает
+    private static long pack(int vx, int vy, int seq) {
+        vx = Math.max(-MAX_INPUT, Math.min(MAX_INPUT, vx));
+        vy = Math.max(-MAX_INPUT, Math.min(MAX_INPUT, vy));
+        return ((long) vx << 48) | ((long) (vy & 0xFFFF) << 32) | (seq & 0xFFFFFFFFL);
+    }
+
+    private static int unpackX(long v) {
+        return (int) (v >> 48);
+    }
+
+    private static int unpackY(long v) {
+        return (short) (v >> 32);
+    }
+
+    private static int unpackSeq(long v) {
+        return (int) v;
+    }
+}
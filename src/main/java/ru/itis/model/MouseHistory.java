@@ -0,0 +1,88 @@
+package ru.itis.model;
+
+import java.util.Arrays;
+
+/**
+ * Кольцо позиций мышей за последние depth тиков, по слотам MouseStore: [тик][слот].
+ * По нему поимка проверяется против тех позиций, которые видел игрок-кот.
+ * Запись - два System.arraycopy на тик. Не потокобезопасен, работает под монитором GameState.
+ */
+public class MouseHistory {
+    private final int depth;
+    private final int[][] xs;
+    private final int[][] ys;
+    // Наибольший шаг мыши за тик (|vx| + |vy|) - граница смещения для широкой фазы
+    private final int[] maxStep;
+    private int head = -1;
+    private int recorded = 0;
+
+    public MouseHistory(int depth) {
+        this.depth = depth;
+        this.xs = new int[depth][0];
+        this.ys = new int[depth][0];
+        this.maxStep = new int[depth];
+    }
+
+    void record(MouseStore mice, int step) {
+        ensureCapacity(mice.x.length);
+        head = (head + 1) % depth;
+        System.arraycopy(mice.x, 0, xs[head], 0, mice.limit());
+        System.arraycopy(mice.y, 0, ys[head], 0, mice.limit());
+        maxStep[head] = step;
+        if (recorded < depth) recorded++;
+    }
+
+    /**
+     * Новая мышь "стоит" на месте появления всю историю, иначе в слоте остались бы координаты прежнего владельца.
+     */
+    void fill(int slot, int x, int y) {
+        ensureCapacity(slot + 1);
+        for (int i = 0; i < depth; i++) {
+            xs[i][slot] = x;
+            ys[i][slot] = y;
+        }
+    }
+
+    void clear() {
+        head = -1;
+        recorded = 0;
+    }
+
+    /**
+     * На сколько тиков назад можно откатиться.
+     */
+    int available() {
+        return Math.max(0, recorded - 1);
+    }
+
+    int x(int ticksAgo, int slot) {
+        return xs[index(ticksAgo)][slot];
+    }
+
+    int y(int ticksAgo, int slot) {
+        return ys[index(ticksAgo)][slot];
+    }
+
+    /**
+     * Насколько любая мышь могла сместиться за последние ticksAgo тиков.
+     */
+    int maxDisplacement(int ticksAgo) {
+        int sum = 0;
+        for (int i = 0; i < ticksAgo; i++) {
+            sum += maxStep[index(i)];
+        }
+        return sum;
+    }
+
+    private int index(int ticksAgo) {
+        return (head - ticksAgo + depth) % depth;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (xs[0].length >= capacity) return;
+        for (int i = 0; i < depth; i++) {
+            xs[i] = Arrays.copyOf(xs[i], capacity);
+            ys[i] = Arrays.copyOf(ys[i], capacity);
+        }
+    }
+}
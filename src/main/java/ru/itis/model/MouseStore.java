@@ -0,0 +1,121 @@
+package ru.itis.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Мыши в виде структуры массивов: координаты, скорости и счётчики лежат в параллельных int[],
+ * признаки - в битовой маске на слот. Слоты плотные, освобождённые переиспользуются через free list.
+ * Id игрока переводится в слот только на границе (вход, выход, ввод игрока).
+ * Не потокобезопасен, работает под монитором GameState.
+ */
+public class MouseStore {
+    public static final int ALIVE = 1;
+    public static final int CARRYING_CHEESE = 1 << 1;
+    public static final int FACING_LEFT = 1 << 2;
+    private static final int USED = 1 << 7;
+
+    int[] x = new int[0];
+    int[] y = new int[0];
+    int[] vx = new int[0];
+    int[] vy = new int[0];
+    int[] delivered = new int[0];
+    int[] flags = new int[0];
+    int[] ids = new int[0];
+    // Номер последнего применённого ввода игрока
+    int[] inputSeq = new int[0];
+
+    private final Map<Integer, Integer> slotById = new HashMap<>();
+    private int[] freeSlots = new int[0];
+    private int freeCount = 0;
+    private int limit = 0;
+
+    /**
+     * Добавляет живую мышь или перезапускает существующую с тем же id; возвращает её слот.
+     */
+    public int add(int id, int px, int py) {
+        Integer existing = slotById.get(id);
+        int slot = existing != null ? existing : allocate();
+        slotById.put(id, slot);
+        ids[slot] = id;
+        x[slot] = px;
+        y[slot] = py;
+        vx[slot] = vy[slot] = 0;
+        delivered[slot] = 0;
+        inputSeq[slot] = 0;
+        flags[slot] = USED | ALIVE;
+        return slot;
+    }
+
+    /**
+     * Удаляет мышь; возвращает освободившийся слот или -1.
+     */
+    public int remove(int id) {
+        Integer slot = slotById.remove(id);
+        if (slot == null) return -1;
+        flags[slot] = 0;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, Math.max(8, freeCount * 2));
+        }
+        freeSlots[freeCount++] = slot;
+        return slot;
+    }
+
+    public int slotOf(int id) {
+        Integer slot = slotById.get(id);
+        return slot != null ? slot : -1;
+    }
+
+    public void clear() {
+        Arrays.fill(flags, 0, limit, 0);
+        slotById.clear();
+        freeCount = 0;
+        limit = 0;
+    }
+
+    public int size() {
+        return slotById.size();
+    }
+
+    /**
+     * Граница перебора: все занятые слоты меньше этого значения.
+     */
+    public int limit() {
+        return limit;
+    }
+
+    public boolean isUsed(int slot) {
+        return (flags[slot] & USED) != 0;
+    }
+
+    public boolean isAlive(int slot) {
+        return (flags[slot] & (USED | ALIVE)) == (USED | ALIVE);
+    }
+
+    public boolean has(int slot, int flag) {
+        return (flags[slot] & flag) != 0;
+    }
+
+    void set(int slot, int flag, boolean value) {
+        if (value) flags[slot] |= flag;
+        else flags[slot] &= ~flag;
+    }
+
+    private int allocate() {
+        if (freeCount > 0) return freeSlots[--freeCount];
+        if (limit == x.length) grow(Math.max(8, limit * 2));
+        return limit++;
+    }
+
+    private void grow(int capacity) {
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        delivered = Arrays.copyOf(delivered, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        inputSeq = Arrays.copyOf(inputSeq, capacity);
+    }
+}
@@ -0,0 +1,142 @@
+package ru.itis.model;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Равномерная сетка для поиска сущностей в радиусе.
+ * Сущности - плотные целые id; в каждой ячейке двусвязный список на массивах,
+ * поэтому перемещение между ячейками и удаление - O(1) без выделения памяти.
+ * Запрос обходит все ячейки, которые задевает квадрат вокруг точки, поэтому радиус может быть любым;
+ * пока он не больше размера ячейки, это окрестность 3x3, а на больших радиусах ячеек просто больше.
+ */
+public class SpatialGrid {
+    private static final int NONE = -1;
+
+    private final int cellSize;
+    private final int cols;
+    private final int rows;
+    private final int[] head;
+
+    private int[] xs = new int[0];
+    private int[] ys = new int[0];
+    private int[] cellOf = new int[0];
+    private int[] next = new int[0];
+    private int[] prev = new int[0];
+
+    public SpatialGrid(int width, int height, int cellSize) {
+        this.cellSize = cellSize;
+        this.cols = width / cellSize + 1;
+        this.rows = height / cellSize + 1;
+        this.head = new int[cols * rows];
+        Arrays.fill(head, NONE);
+    }
+
+    public void insert(int id, int x, int y) {
+        ensureCapacity(id + 1);
+        remove(id);
+        xs[id] = x;
+        ys[id] = y;
+        link(id, cellIndex(x, y));
+    }
+
+    public void move(int id, int x, int y) {
+        xs[id] = x;
+        ys[id] = y;
+        int cell = cellIndex(x, y);
+        if (cell != cellOf[id]) {
+            unlink(id);
+            link(id, cell);
+        }
+    }
+
+    public void remove(int id) {
+        if (id < cellOf.length && cellOf[id] != NONE) {
+            unlink(id);
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(head, NONE);
+        Arrays.fill(cellOf, NONE);
+    }
+
+    /**
+     * Первая найденная сущность не дальше radius от точки, или -1.
+     */
+    public int findAny(int x, int y, int radius) {
+        long r2 = (long) radius * radius;
+        int minCol = col(x - radius), maxCol = col(x + radius);
+        int minRow = row(y - radius), maxRow = row(y + radius);
+        for (int r = minRow; r <= maxRow; r++) {
+            for (int c = minCol; c <= maxCol; c++) {
+                for (int id = head[r * cols + c]; id != NONE; id = next[id]) {
+                    if (distSq(x, y, id) <= r2) return id;
+                }
+            }
+        }
+        return NONE;
+    }
+
+    public void forEachWithin(int x, int y, int radius, IntConsumer action) {
+        long r2 = (long) radius * radius;
+        int minCol = col(x - radius), maxCol = col(x + radius);
+        int minRow = row(y - radius), maxRow = row(y + radius);
+        for (int r = minRow; r <= maxRow; r++) {
+            for (int c = minCol; c <= maxCol; c++) {
+                int id = head[r * cols + c];
+                while (id != NONE) {
+                    int following = next[id];
+                    if (distSq(x, y, id) <= r2) action.accept(id);
+                    id = following;
+                }
+            }
+        }
+    }
+
+    private long distSq(int x, int y, int id) {
+        long dx = xs[id] - x;
+        long dy = ys[id] - y;
+        return dx * dx + dy * dy;
+    }
+
+    private void link(int id, int cell) {
+        cellOf[id] = cell;
+        prev[id] = NONE;
+        next[id] = head[cell];
+        if (head[cell] != NONE) prev[head[cell]] = id;
+        head[cell] = id;
+    }
+
+    private void unlink(int id) {
+        int cell = cellOf[id];
+        if (prev[id] != NONE) next[prev[id]] = next[id];
+        else head[cell] = next[id];
+        if (next[id] != NONE) prev[next[id]] = prev[id];
+        cellOf[id] = NONE;
+    }
+
+    private int cellIndex(int x, int y) {
+        return row(y) * cols + col(x);
+    }
+
+    private int col(int x) {
+        return Math.max(0, Math.min(cols - 1, x / cellSize));
+    }
+
+    private int row(int y) {
+        return Math.max(0, Math.min(rows - 1, y / cellSize));
+    }
+
+    private void ensureCapacity(int size) {
+        if (size <= xs.length) return;
+        int capacity = Math.max(size, xs.length * 2);
+        int old = xs.length;
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+        cellOf = Arrays.copyOf(cellOf, capacity);
+        Arrays.fill(cellOf, old, capacity, NONE);
+    }
+}
@@ -0,0 +1,506 @@
+package ru.itis.protocol;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Компактный бинарный формат: байт с ordinal типа сообщения, далее тело.
+ * STATE пишется типизированными полями, остальные сообщения - строкой в UTF-8.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+    private static final MessageType[] TYPES = MessageType.values();
+
+    private static final int FLAG_GAME_OVER = 1;
+    private static final int FLAG_WINNER = 1 << 1;
+
+    // Признаки мыши на проводе совпадают со StateSnapshot и StateBuffer, поэтому байт пишется и кладётся как есть
+    private static final int MOUSE_ALIVE = StateSnapshot.ALIVE;
+    private static final int MOUSE_CARRYING = StateSnapshot.CARRYING_CHEESE;
+    private static final int MOUSE_FACING_LEFT = StateSnapshot.FACING_LEFT;
+    private static final int MOUSE_FLAGS = MOUSE_ALIVE | MOUSE_CARRYING | MOUSE_FACING_LEFT;
+
+    // Обёртка над буфером чтения для decode в StateHistory: пересоздаётся, только когда буфер сменился
+    private ByteBuffer reader;
+
+    @Override
+    public byte id() {
+        return BINARY;
+    }
+
+    @Override
+    public byte[] encode(Message msg) throws IOException {
+        StateSnapshot state = msg.getState();
+        StateDelta delta = msg.getDelta();
+        int entities = state != null ? state.miceCount() : delta != null ? delta.mice.size() : 0;
+        FrameOutputStream frame = new FrameOutputStream(64 + entities * 32);
+        DataOutputStream out = new DataOutputStream(frame);
+        out.writeByte(msg.getType().ordinal());
+        if (msg.getType() == MessageType.STATE && state != null) {
+            writeState(out, state);
+        } else if (msg.getType() == MessageType.STATE_DELTA && delta != null) {
+            writeDelta(out, delta);
+        } else {
+            writeString(out, msg.getContent());
+        }
+        out.flush();
+        return frame.toFrame();
+    }
+
+    @Override
+    public Message decode(byte[] payload, int offset, int length) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(payload, offset, length);
+        try {
+            int ordinal = in.get() & 0xFF;
+            if (ordinal >= TYPES.length) {
+                throw new IOException("Unknown message type: " + ordinal);
+            }
+            MessageType type = TYPES[ordinal];
+            if (type == MessageType.STATE) {
+                return new Message(readState(in));
+            }
+            if (type == MessageType.STATE_DELTA) {
+                return new Message(readDelta(in));
+            }
+            return new Message(type, readString(in));
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated " + length + "-byte frame", e);
+        }
+    }
+
+    @Override
+    public Message decode(byte[] payload, int offset, int length, StateHistory states) throws IOException {
+        if (reader == null || reader.array() != payload) {
+            reader = ByteBuffer.wrap(payload);
+        }
+        ByteBuffer in = reader;
+        in.limit(offset + length).position(offset);
+        try {
+            int ordinal = in.get() & 0xFF;
+            if (ordinal >= TYPES.length) {
+                throw new IOException("Unknown message type: " + ordinal);
+            }
+            MessageType type = TYPES[ordinal];
+            if (type == MessageType.STATE) {
+                readState(in, states.spare());
+                states.commit();
+                return null;
+            }
+            if (type == MessageType.STATE_DELTA) {
+                applyDelta(in, states);
+                return null;
+            }
+            return new Message(type, readString(in));
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated " + length + "-byte frame", e);
+        }
+    }
+
+    @Override
+    public void encodeStateAck(int seq, int viewTick, FrameOutputStream frame) throws IOException {
+        // Та же строка "seq,viewTick", что дал бы encode, но цифры пишутся прямо в кадр
+        frame.reset();
+        frame.write(MessageType.STATE_ACK.ordinal());
+        writeVarInt(frame, decimalLength(seq) + 1 + decimalLength(viewTick) + 1);
+        writeDecimal(frame, seq);
+        frame.write(',');
+        writeDecimal(frame, viewTick);
+    }
+
+    private void writeState(DataOutputStream out, StateSnapshot s) throws IOException {
+        out.writeInt(s.seq);
+        out.writeInt(s.tick);
+        out.writeShort(s.tickRate);
+        int flags = (s.gameOver ? FLAG_GAME_OVER : 0) | (s.winner != null ? FLAG_WINNER : 0);
+        out.writeByte(flags);
+        if (s.winner != null) writeString(out, s.winner);
+
+        out.writeShort(s.catX);
+        out.writeShort(s.catY);
+        out.writeShort(s.catVx);
+        out.writeShort(s.catVy);
+        writeVarInt(out, s.catInputSeq);
+
+        int count = s.miceCount();
+        out.writeShort(count);
+        for (int i = 0; i < count; i++) {
+            writeVarInt(out, s.mouseId[i]);
+            out.writeShort(s.mouseX[i]);
+            out.writeShort(s.mouseY[i]);
+            out.writeShort(s.mouseVx[i]);
+            out.writeShort(s.mouseVy[i]);
+            out.writeByte(s.mouseFlags[i] & MOUSE_FLAGS);
+            out.writeShort(s.mouseCarried[i]);
+            writeVarInt(out, s.mouseInputSeq[i]);
+        }
+
+        writePoints(out, s.cheese);
+        writePoints(out, s.holes);
+    }
+
+    private StateSnapshot readState(ByteBuffer in) throws IOException {
+        StateBuffer state = new StateBuffer();
+        readState(in, state);
+        return state.toSnapshot();
+    }
+
+    private void readState(ByteBuffer in, StateBuffer s) throws IOException {
+        s.seq = in.getInt();
+        s.tick = in.getInt();
+        s.tickRate = in.getShort() & 0xFFFF;
+        int flags = in.get();
+        s.gameOver = (flags & FLAG_GAME_OVER) != 0;
+        s.winner = (flags & FLAG_WINNER) != 0 ? readString(in) : null;
+
+        s.catX = in.getShort();
+        s.catY = in.getShort();
+        s.catVx = in.getShort();
+        s.catVy = in.getShort();
+        s.catInputSeq = readVarInt(in);
+
+        int count = in.getShort() & 0xFFFF;
+        s.miceCount = 0;
+        for (int i = 0; i < count; i++) {
+            int m = s.addMouse(readVarInt(in));
+            s.mouseX[m] = in.getShort();
+            s.mouseY[m] = in.getShort();
+            s.mouseVx[m] = in.getShort();
+            s.mouseVy[m] = in.getShort();
+            s.mouseFlags[m] = in.get() & MOUSE_FLAGS;
+            s.mouseCarried[m] = in.getShort();
+            s.mouseInputSeq[m] = readVarInt(in);
+        }
+
+        readPoints(in, s, true);
+        readPoints(in, s, false);
+    }
+
+    private void writeDelta(DataOutputStream out, StateDelta d) throws IOException {
+        out.writeInt(d.seq);
+        out.writeInt(d.baselineSeq);
+        out.writeInt(d.tick);
+        out.writeByte(d.changes);
+        if (d.has(StateDelta.GAME_OVER)) {
+            out.writeByte((d.gameOver ? FLAG_GAME_OVER : 0) | (d.winner != null ? FLAG_WINNER : 0));
+            if (d.winner != null) writeString(out, d.winner);
+        }
+        if (d.has(StateDelta.CAT_POSITION)) {
+            out.writeShort(d.catX);
+            out.writeShort(d.catY);
+        }
+        if (d.has(StateDelta.CAT_VELOCITY)) {
+            out.writeShort(d.catVx);
+            out.writeShort(d.catVy);
+        }
+        if (d.has(StateDelta.CAT_INPUT)) writeVarInt(out, d.catInputSeq);
+
+        out.writeShort(d.mice.size());
+        for (StateDelta.MouseDelta m : d.mice) {
+            writeVarInt(out, m.id);
+            out.writeByte(m.mask);
+            if (m.has(StateDelta.MOUSE_X)) out.writeShort(m.x);
+            if (m.has(StateDelta.MOUSE_Y)) out.writeShort(m.y);
+            if (m.has(StateDelta.MOUSE_VELOCITY)) {
+                out.writeShort(m.vx);
+                out.writeShort(m.vy);
+            }
+            if (m.has(StateDelta.MOUSE_FLAGS)) {
+                out.writeByte(StateSnapshot.mouseFlags(m.alive, m.carryingCheese, m.lastFacingLeft));
+            }
+            if (m.has(StateDelta.MOUSE_COUNT)) out.writeShort(m.carriedCheeseCount);
+            if (m.has(StateDelta.MOUSE_INPUT)) writeVarInt(out, m.inputSeq);
+        }
+        out.writeShort(d.removedMice.length);
+        for (int id : d.removedMice) {
+            writeVarInt(out, id);
+        }
+
+        if (d.has(StateDelta.CHEESE)) writePoints(out, d.cheese);
+        if (d.has(StateDelta.HOLES)) writePoints(out, d.holes);
+    }
+
+    @Override
+    public byte[] encodeDelta(StateSnapshot base, StateSnapshot cur) throws IOException {
+        // Те же байты, что writeDelta(StateDelta.diff(base, cur)), но без промежуточных объектов
+        int changes = StateDelta.changes(base, cur);
+        int count = cur.miceCount();
+        FrameOutputStream frame = new FrameOutputStream(64 + count * 16);
+        DataOutputStream out = new DataOutputStream(frame);
+        out.writeByte(MessageType.STATE_DELTA.ordinal());
+        out.writeInt(cur.seq);
+        out.writeInt(base.seq);
+        out.writeInt(cur.tick);
+        out.writeByte(changes);
+        if ((changes & StateDelta.GAME_OVER) != 0) {
+            out.writeByte((cur.gameOver ? FLAG_GAME_OVER : 0) | (cur.winner != null ? FLAG_WINNER : 0));
+            if (cur.winner != null) writeString(out, cur.winner);
+        }
+        if ((changes & StateDelta.CAT_POSITION) != 0) {
+            out.writeShort(cur.catX);
+            out.writeShort(cur.catY);
+        }
+        if ((changes & StateDelta.CAT_VELOCITY) != 0) {
+            out.writeShort(cur.catVx);
+            out.writeShort(cur.catVy);
+        }
+        if ((changes & StateDelta.CAT_INPUT) != 0) writeVarInt(out, cur.catInputSeq);
+
+        // Число изменившихся мышей идёт перед ними, поэтому сравниваем в два прохода
+        out.writeShort(writeMice(null, base, cur));
+        writeMice(out, base, cur);
+        int removed = StateDelta.countRemoved(base, cur);
+        out.writeShort(removed);
+        for (int j = 0, n = base.miceCount(); removed > 0 && j < n; j++) {
+            if (cur.indexOf(base.mouseId[j], j) < 0) {
+                writeVarInt(out, base.mouseId[j]);
+                removed--;
+            }
+        }
+
+        if ((changes & StateDelta.CHEESE) != 0) writePoints(out, cur.cheese);
+        if ((changes & StateDelta.HOLES) != 0) writePoints(out, cur.holes);
+        out.flush();
+        return frame.toFrame();
+    }
+
+    // Пишет изменившихся мышей, если out != null, и возвращает их число
+    private int writeMice(DataOutputStream out, StateSnapshot base, StateSnapshot cur) throws IOException {
+        int changed = 0;
+        int hint = 0;
+        for (int i = 0, n = cur.miceCount(); i < n; i++) {
+            int old = base.indexOf(cur.mouseId[i], hint);
+            int mask = old < 0 ? StateDelta.MOUSE_ALL : StateDelta.compareMouse(base, old, cur, i);
+            if (old >= 0) hint = old + 1;
+            if (mask == 0) continue;
+            changed++;
+            if (out == null) continue;
+            writeVarInt(out, cur.mouseId[i]);
+            out.writeByte(mask);
+            if ((mask & StateDelta.MOUSE_X) != 0) out.writeShort(cur.mouseX[i]);
+            if ((mask & StateDelta.MOUSE_Y) != 0) out.writeShort(cur.mouseY[i]);
+            if ((mask & StateDelta.MOUSE_VELOCITY) != 0) {
+                out.writeShort(cur.mouseVx[i]);
+                out.writeShort(cur.mouseVy[i]);
+            }
+            if ((mask & StateDelta.MOUSE_FLAGS) != 0) out.writeByte(cur.mouseFlags[i] & MOUSE_FLAGS);
+            if ((mask & StateDelta.MOUSE_COUNT) != 0) out.writeShort(cur.mouseCarried[i]);
+            if ((mask & StateDelta.MOUSE_INPUT) != 0) writeVarInt(out, cur.mouseInputSeq[i]);
+        }
+        return changed;
+    }
+
+    private StateDelta readDelta(ByteBuffer in) throws IOException {
+        int seq = in.getInt();
+        int baselineSeq = in.getInt();
+        int tick = in.getInt();
+        int changes = in.get();
+        boolean gameOver = false;
+        String winner = null;
+        if ((changes & StateDelta.GAME_OVER) != 0) {
+            int flags = in.get();
+            gameOver = (flags & FLAG_GAME_OVER) != 0;
+            if ((flags & FLAG_WINNER) != 0) winner = readString(in);
+        }
+        int catX = 0, catY = 0, catVx = 0, catVy = 0;
+        if ((changes & StateDelta.CAT_POSITION) != 0) {
+            catX = in.getShort();
+            catY = in.getShort();
+        }
+        if ((changes & StateDelta.CAT_VELOCITY) != 0) {
+            catVx = in.getShort();
+            catVy = in.getShort();
+        }
+        int catInputSeq = (changes & StateDelta.CAT_INPUT) != 0 ? readVarInt(in) : 0;
+
+        int count = in.getShort() & 0xFFFF;
+        List<StateDelta.MouseDelta> mice = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int id = readVarInt(in);
+            int mask = in.get();
+            int x = (mask & StateDelta.MOUSE_X) != 0 ? in.getShort() : 0;
+            int y = (mask & StateDelta.MOUSE_Y) != 0 ? in.getShort() : 0;
+            int vx = 0, vy = 0;
+            if ((mask & StateDelta.MOUSE_VELOCITY) != 0) {
+                vx = in.getShort();
+                vy = in.getShort();
+            }
+            int mouseFlags = (mask & StateDelta.MOUSE_FLAGS) != 0 ? in.get() : 0;
+            int carried = (mask & StateDelta.MOUSE_COUNT) != 0 ? in.getShort() : 0;
+            int inputSeq = (mask & StateDelta.MOUSE_INPUT) != 0 ? readVarInt(in) : 0;
+            mice.add(new StateDelta.MouseDelta(mask, id, x, y, vx, vy,
+                    (mouseFlags & MOUSE_ALIVE) != 0,
+                    (mouseFlags & MOUSE_CARRYING) != 0,
+                    carried,
+                    (mouseFlags & MOUSE_FACING_LEFT) != 0,
+                    inputSeq));
+        }
+        int removedCount = in.getShort() & 0xFFFF;
+        int[] removed = new int[removedCount];
+        for (int i = 0; i < removedCount; i++) {
+            removed[i] = readVarInt(in);
+        }
+
+        int[] cheese = (changes & StateDelta.CHEESE) != 0 ? readPoints(in) : null;
+        int[] holes = (changes & StateDelta.HOLES) != 0 ? readPoints(in) : null;
+        return new StateDelta(seq, baselineSeq, tick, changes, gameOver, winner,
+                catX, catY, catVx, catVy, catInputSeq, mice, removed, cheese, holes);
+    }
+
+    // Дельта накладывается на копию базы в запасном буфере истории, без промежуточного StateDelta
+    private void applyDelta(ByteBuffer in, StateHistory states) throws IOException {
+        int seq = in.getInt();
+        int baselineSeq = in.getInt();
+        if (states.isStale(seq)) {
+            states.reject(StateHistory.Result.STALE);
+            return;
+        }
+        StateBuffer base = states.find(baselineSeq);
+        if (base == null) {
+            states.reject(StateHistory.Result.NO_BASELINE);
+            return;
+        }
+        StateBuffer s = states.spare();
+        s.copyFrom(base);
+        s.seq = seq;
+        s.tick = in.getInt();
+        int changes = in.get();
+        if ((changes & StateDelta.GAME_OVER) != 0) {
+            int flags = in.get();
+            s.gameOver = (flags & FLAG_GAME_OVER) != 0;
+            s.winner = (flags & FLAG_WINNER) != 0 ? readString(in) : null;
+        }
+        if ((changes & StateDelta.CAT_POSITION) != 0) {
+            s.catX = in.getShort();
+            s.catY = in.getShort();
+        }
+        if ((changes & StateDelta.CAT_VELOCITY) != 0) {
+            s.catVx = in.getShort();
+            s.catVy = in.getShort();
+        }
+        if ((changes & StateDelta.CAT_INPUT) != 0) s.catInputSeq = readVarInt(in);
+
+        int count = in.getShort() & 0xFFFF;
+        int hint = 0;
+        for (int i = 0; i < count; i++) {
+            int id = readVarInt(in);
+            int mask = in.get();
+            int m = s.indexOf(id, hint);
+            if (m < 0) m = s.addMouse(id);
+            hint = m + 1;
+            if ((mask & StateDelta.MOUSE_X) != 0) s.mouseX[m] = in.getShort();
+            if ((mask & StateDelta.MOUSE_Y) != 0) s.mouseY[m] = in.getShort();
+            if ((mask & StateDelta.MOUSE_VELOCITY) != 0) {
+                s.mouseVx[m] = in.getShort();
+                s.mouseVy[m] = in.getShort();
+            }
+            if ((mask & StateDelta.MOUSE_FLAGS) != 0) s.mouseFlags[m] = in.get() & MOUSE_FLAGS;
+            if ((mask & StateDelta.MOUSE_COUNT) != 0) s.mouseCarried[m] = in.getShort();
+            if ((mask & StateDelta.MOUSE_INPUT) != 0) s.mouseInputSeq[m] = readVarInt(in);
+        }
+        int removedCount = in.getShort() & 0xFFFF;
+        for (int i = 0; i < removedCount; i++) {
+            s.removeMouse(readVarInt(in));
+        }
+
+        if ((changes & StateDelta.CHEESE) != 0) readPoints(in, s, true);
+        if ((changes & StateDelta.HOLES) != 0) readPoints(in, s, false);
+        states.commit();
+    }
+
+    private void writePoints(DataOutputStream out, int[] points) throws IOException {
+        out.writeShort(points.length / 2);
+        for (int v : points) {
+            out.writeShort(v);
+        }
+    }
+
+    private void readPoints(ByteBuffer in, StateBuffer s, boolean cheese) {
+        int length = (in.getShort() & 0xFFFF) * 2;
+        int[] points = cheese ? s.resizeCheese(length) : s.resizeHoles(length);
+        for (int i = 0; i < length; i++) {
+            points[i] = in.getShort();
+        }
+    }
+
+    private int[] readPoints(ByteBuffer in) {
+        int[] points = new int[(in.getShort() & 0xFFFF) * 2];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = in.getShort();
+        }
+        return points;
+    }
+
+    private void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    private String readString(ByteBuffer in) throws IOException {
+        int length = readVarInt(in);
+        if (length == 0) return null;
+        length--;
+        if (length > in.remaining()) {
+            throw new IOException("String length " + length + " exceeds frame");
+        }
+        String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    private void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeDecimal(OutputStream out, int value) throws IOException {
+        long v = value;
+        if (v < 0) {
+            out.write('-');
+            v = -v;
+        }
+        long divisor = 1;
+        while (divisor * 10 <= v) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out.write((int) ('0' + v / divisor % 10));
+        }
+    }
+
+    private static int decimalLength(int value) {
+        long v = value;
+        int length = 1;
+        if (v < 0) {
+            length++;
+            v = -v;
+        }
+        while (v >= 10) {
+            v /= 10;
+            length++;
+        }
+        return length;
+    }
+
+    private int readVarInt(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,39 @@
+package ru.itis.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Буфер, который сразу резервирует место под заголовок длины кадра,
+ * чтобы не копировать тело второй раз.
+ */
+public class FrameOutputStream extends ByteArrayOutputStream {
+    public FrameOutputStream(int size) {
+        super(Math.max(size, Frames.HEADER_SIZE));
+        count = Frames.HEADER_SIZE;
+    }
+
+    /**
+     * Начинает новый кадр в том же буфере.
+     */
+    @Override
+    public synchronized void reset() {
+        count = Frames.HEADER_SIZE;
+    }
+
+    /**
+     * Пишет кадр в out без копирования буфера.
+     */
+    public synchronized void writeFrameTo(OutputStream out) throws IOException {
+        Frames.putLength(buf, count - Frames.HEADER_SIZE);
+        out.write(buf, 0, count);
+    }
+
+    public byte[] toFrame() {
+        byte[] frame = Arrays.copyOf(buf, count);
+        Frames.putLength(frame, count - Frames.HEADER_SIZE);
+        return frame;
+    }
+}
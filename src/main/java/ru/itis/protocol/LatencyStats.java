@@ -0,0 +1,106 @@
+package ru.itis.protocol;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Оценки задержки по обмену PING/PONG: сглаженный RTT, джиттер и смещение часов собеседника.
+ * PING несёт System.nanoTime() отправителя, PONG возвращает его вместе с System.currentTimeMillis() ответившего.
+ * RTT и джиттер сглаживаются как в RFC 6298 и RFC 3550. Смещение берётся из замера с наименьшим RTT
+ * среди последних WINDOW: у него меньше всего асимметрии пути.
+ * Пишет один поток (тот, что читает PONG), читать можно из любого.
+ */
+public class LatencyStats {
+    private static final int WINDOW = 8;
+
+    private final long[] windowRtt = new long[WINDOW];
+    private final long[] windowOffset = new long[WINDOW];
+    private int windowCount = 0;
+    private int windowNext = 0;
+    private long lastRtt = -1;
+
+    private volatile long rttNanos = -1;
+    private volatile long jitterNanos = 0;
+    private volatile long offsetMillis = 0;
+    private volatile long samples = 0;
+
+    public static String pingContent(long nowNanos) {
+        return String.valueOf(nowNanos);
+    }
+
+    public static String pongContent(String pingContent, long nowMillis) {
+        return pingContent + "," + nowMillis;
+    }
+
+    /**
+     * Разбирает PONG и учитывает замер; возвращает false, если содержимое битое.
+     */
+    public boolean onPong(String content, long nowNanos, long nowMillis) {
+        if (content == null) return false;
+        String[] arr = content.split(",");
+        if (arr.length != 2) return false;
+        long sentNanos, remoteMillis;
+        try {
+            sentNanos = Long.parseLong(arr[0]);
+            remoteMillis = Long.parseLong(arr[1]);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        long rtt = nowNanos - sentNanos;
+        if (rtt < 0) return false;
+        sample(rtt, remoteMillis + TimeUnit.NANOSECONDS.toMillis(rtt / 2) - nowMillis);
+        return true;
+    }
+
+    private void sample(long rtt, long offset) {
+        if (lastRtt < 0) {
+            rttNanos = rtt;
+        } else {
+            rttNanos += (rtt - rttNanos) / 8;
+            jitterNanos += (Math.abs(rtt - lastRtt) - jitterNanos) / 16;
+        }
+        lastRtt = rtt;
+
+        windowRtt[windowNext] = rtt;
+        windowOffset[windowNext] = offset;
+        windowNext = (windowNext + 1) % WINDOW;
+        if (windowCount < WINDOW) windowCount++;
+        int best = 0;
+        for (int i = 1; i < windowCount; i++) {
+            if (windowRtt[i] < windowRtt[best]) best = i;
+        }
+        offsetMillis = windowOffset[best];
+        samples++;
+    }
+
+    public boolean hasSamples() {
+        return samples > 0;
+    }
+
+    /**
+     * Сглаженный RTT или -1, пока не было ни одного PONG.
+     */
+    public long getRttNanos() {
+        return rttNanos;
+    }
+
+    public long getJitterNanos() {
+        return jitterNanos;
+    }
+
+    /**
+     * На сколько мс часы собеседника впереди наших.
+     */
+    public long getClockOffsetMillis() {
+        return offsetMillis;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("rtt=%.1fms jitter=%.1fms offset=%+dms",
+                rttNanos / 1e6, jitterNanos / 1e6, offsetMillis);
+    }
+}
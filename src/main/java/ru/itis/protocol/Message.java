@@ -7,12 +7,24 @@ public class Message implements Serializable {
 
     private MessageType type;
     private String content;
+    private StateSnapshot state;
+    private StateDelta delta;
 
     public Message(MessageType type, String content) {
         this.type = type;
         this.content = content;
     }
 
+    public Message(StateSnapshot state) {
+        this.type = MessageType.STATE;
+        this.state = state;
+    }
+
+    public Message(StateDelta delta) {
+        this.type = MessageType.STATE_DELTA;
+        this.delta = delta;
+    }
+
     public MessageType getType() {
         return type;
     }
@@ -20,4 +32,12 @@ public class Message implements Serializable {
     public String getContent() {
         return content;
     }
+
+    public StateSnapshot getState() {
+        return state;
+    }
+
+    public StateDelta getDelta() {
+        return delta;
+    }
 }
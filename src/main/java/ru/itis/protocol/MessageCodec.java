@@ -0,0 +1,70 @@
+package ru.itis.protocol;
+
+import java.io.IOException;
+
+public interface MessageCodec {
+    byte SERIALIZED = 0;
+    byte BINARY = 1;
+
+    /**
+     * Идентификатор кодека, который клиент отправляет первым байтом после подключения.
+     */
+    byte id();
+
+    /**
+     * Кодирует сообщение в готовый кадр: 4 байта длины + тело.
+     */
+    byte[] encode(Message msg) throws IOException;
+
+    Message decode(byte[] payload, int offset, int length) throws IOException;
+
+    /**
+     * Кодирует STATE_DELTA от base к cur в готовый кадр. По умолчанию через StateDelta.diff,
+     * бинарный кодек пишет поля прямо из снимков.
+     */
+    default byte[] encodeDelta(StateSnapshot base, StateSnapshot cur) throws IOException {
+        return encode(new Message(StateDelta.diff(base, cur)));
+    }
+
+    /**
+     * Как decode, но STATE и STATE_DELTA применяются прямо к states и вместо сообщения возвращается null;
+     * что стало со снимком, говорит states.lastResult(). Бинарный кодек при этом ничего не выделяет,
+     * по умолчанию кадр разбирается через decode и копируется.
+     */
+    default Message decode(byte[] payload, int offset, int length, StateHistory states) throws IOException {
+        Message msg = decode(payload, offset, length);
+        if (msg == null) {
+            throw new IOException("Empty message frame");
+        }
+        if (msg.getType() == MessageType.STATE && msg.getState() != null) {
+            states.add(msg.getState());
+            return null;
+        }
+        if (msg.getType() == MessageType.STATE_DELTA && msg.getDelta() != null) {
+            states.add(msg.getDelta());
+            return null;
+        }
+        return msg;
+    }
+
+    /**
+     * Кодирует STATE_ACK "seq,viewTick" в переиспользуемый frame, затирая его прежнее содержимое.
+     * По умолчанию через encode; бинарный кодек пишет кадр без выделений.
+     */
+    default void encodeStateAck(int seq, int viewTick, FrameOutputStream frame) throws IOException {
+        byte[] encoded = encode(new Message(MessageType.STATE_ACK, seq + "," + viewTick));
+        frame.reset();
+        frame.write(encoded, Frames.HEADER_SIZE, encoded.length - Frames.HEADER_SIZE);
+    }
+
+    static MessageCodec forId(int id) throws IOException {
+        switch (id) {
+            case SERIALIZED:
+                return new SerializedMessageCodec();
+            case BINARY:
+                return new BinaryMessageCodec();
+            default:
+                throw new IOException("Unknown codec id: " + id);
+        }
+    }
+}
@@ -9,5 +9,10 @@ public enum MessageType {
     ASSIGN_ROLE,
     START_GAME,
     RESET_LOBBY,
-    KICK_PLAYER
+    KICK_PLAYER,
+    STATE_DELTA,
+    STATE_ACK,
+    SET_SEND_RATE,
+    PING,
+    PONG
 }
\ No newline at end of file
@@ -0,0 +1,32 @@
+package ru.itis.protocol;
+
+import java.io.*;
+
+public class SerializedMessageCodec implements MessageCodec {
+    private static final ObjectInputFilter FILTER =
+            ObjectInputFilter.Config.createFilter("ru.itis.protocol.*;java.lang.*;java.util.*;!*");
+
+    @Override
+    public byte id() {
+        return SERIALIZED;
+    }
+
+    @Override
+    public byte[] encode(Message msg) throws IOException {
+        FrameOutputStream frame = new FrameOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(frame)) {
+            out.writeObject(msg);
+        }
+        return frame.toFrame();
+    }
+
+    @Override
+    public Message decode(byte[] payload, int offset, int length) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload, offset, length))) {
+            in.setObjectInputFilter(FILTER);
+            return (Message) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Malformed message frame", e);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package ru.itis.protocol;
+
+import java.util.Arrays;
+
+/**
+ * Изменяемый снимок для приёма на клиенте: те же поля, что у StateSnapshot, но массивы с запасом и длиной.
+ * Массивы только растут, поэтому после прогрева заполнение ничего не выделяет.
+ * Не потокобезопасен.
+ */
+public final class StateBuffer {
+    public static final int ALIVE = StateSnapshot.ALIVE;
+    public static final int CARRYING_CHEESE = StateSnapshot.CARRYING_CHEESE;
+    public static final int FACING_LEFT = StateSnapshot.FACING_LEFT;
+
+    public int seq;
+    public int tick;
+    public int tickRate;
+    public boolean gameOver;
+    public String winner;
+    public int catX, catY;
+    public int catVx, catVy;
+    public int catInputSeq;
+
+    public int miceCount;
+    public int[] mouseId = new int[0];
+    public int[] mouseX = new int[0];
+    public int[] mouseY = new int[0];
+    public int[] mouseVx = new int[0];
+    public int[] mouseVy = new int[0];
+    public int[] mouseFlags = new int[0];
+    public int[] mouseCarried = new int[0];
+    public int[] mouseInputSeq = new int[0];
+
+    public int[] cheese = new int[0];
+    public int cheeseLength;
+    public int[] holes = new int[0];
+    public int holeLength;
+
+    public boolean mouseHas(int i, int flag) {
+        return (mouseFlags[i] & flag) != 0;
+    }
+
+    /**
+     * Индекс мыши с этим id или -1. Поиск начинается с hint: сервер перечисляет мышей в одном порядке,
+     * так что при обходе по порядку мышь обычно находится с первой попытки.
+     */
+    public int indexOf(int id, int hint) {
+        int n = miceCount;
+        if (hint < 0 || hint >= n) hint = 0;
+        for (int k = 0; k < n; k++) {
+            int i = hint + k < n ? hint + k : hint + k - n;
+            if (mouseId[i] == id) return i;
+        }
+        return -1;
+    }
+
+    public void copyFrom(StateBuffer s) {
+        seq = s.seq;
+        tick = s.tick;
+        tickRate = s.tickRate;
+        gameOver = s.gameOver;
+        winner = s.winner;
+        catX = s.catX;
+        catY = s.catY;
+        catVx = s.catVx;
+        catVy = s.catVy;
+        catInputSeq = s.catInputSeq;
+
+        int n = s.miceCount;
+        ensureMice(n);
+        System.arraycopy(s.mouseId, 0, mouseId, 0, n);
+        System.arraycopy(s.mouseX, 0, mouseX, 0, n);
+        System.arraycopy(s.mouseY, 0, mouseY, 0, n);
+        System.arraycopy(s.mouseVx, 0, mouseVx, 0, n);
+        System.arraycopy(s.mouseVy, 0, mouseVy, 0, n);
+        System.arraycopy(s.mouseFlags, 0, mouseFlags, 0, n);
+        System.arraycopy(s.mouseCarried, 0, mouseCarried, 0, n);
+        System.arraycopy(s.mouseInputSeq, 0, mouseInputSeq, 0, n);
+        miceCount = n;
+
+        System.arraycopy(s.cheese, 0, resizeCheese(s.cheeseLength), 0, s.cheeseLength);
+        System.arraycopy(s.holes, 0, resizeHoles(s.holeLength), 0, s.holeLength);
+    }
+
+    /**
+     * Добавляет мышь в конец с нулевыми полями и возвращает её индекс.
+     */
+    public int addMouse(int id) {
+        ensureMice(miceCount + 1);
+        int i = miceCount++;
+        mouseId[i] = id;
+        mouseX[i] = mouseY[i] = 0;
+        mouseVx[i] = mouseVy[i] = 0;
+        mouseFlags[i] = 0;
+        mouseCarried[i] = 0;
+        mouseInputSeq[i] = 0;
+        return i;
+    }
+
+    /**
+     * Удаляет мышь, сохраняя порядок остальных.
+     */
+    public void removeMouse(int id) {
+        int i = indexOf(id, 0);
+        if (i < 0) return;
+        int tail = miceCount - i - 1;
+        System.arraycopy(mouseId, i + 1, mouseId, i, tail);
+        System.arraycopy(mouseX, i + 1, mouseX, i, tail);
+        System.arraycopy(mouseY, i + 1, mouseY, i, tail);
+        System.arraycopy(mouseVx, i + 1, mouseVx, i, tail);
+        System.arraycopy(mouseVy, i + 1, mouseVy, i, tail);
+        System.arraycopy(mouseFlags, i + 1, mouseFlags, i, tail);
+        System.arraycopy(mouseCarried, i + 1, mouseCarried, i, tail);
+        System.arraycopy(mouseInputSeq, i + 1, mouseInputSeq, i, tail);
+        miceCount--;
+    }
+
+    /**
+     * Задаёт длину сыра (x0, y0, x1, y1, ...) и возвращает массив, в который её писать.
+     */
+    public int[] resizeCheese(int length) {
+        if (cheese.length < length) cheese = new int[length];
+        cheeseLength = length;
+        return cheese;
+    }
+
+    public int[] resizeHoles(int length) {
+        if (holes.length < length) holes = new int[length];
+        holeLength = length;
+        return holes;
+    }
+
+    public void set(StateSnapshot s) {
+        seq = s.seq;
+        tick = s.tick;
+        tickRate = s.tickRate;
+        gameOver = s.gameOver;
+        winner = s.winner;
+        catX = s.catX;
+        catY = s.catY;
+        catVx = s.catVx;
+        catVy = s.catVy;
+        catInputSeq = s.catInputSeq;
+
+        int n = s.miceCount();
+        ensureMice(n);
+        System.arraycopy(s.mouseId, 0, mouseId, 0, n);
+        System.arraycopy(s.mouseX, 0, mouseX, 0, n);
+        System.arraycopy(s.mouseY, 0, mouseY, 0, n);
+        System.arraycopy(s.mouseVx, 0, mouseVx, 0, n);
+        System.arraycopy(s.mouseVy, 0, mouseVy, 0, n);
+        System.arraycopy(s.mouseFlags, 0, mouseFlags, 0, n);
+        System.arraycopy(s.mouseCarried, 0, mouseCarried, 0, n);
+        System.arraycopy(s.mouseInputSeq, 0, mouseInputSeq, 0, n);
+        miceCount = n;
+
+        System.arraycopy(s.cheese, 0, resizeCheese(s.cheese.length), 0, s.cheese.length);
+        System.arraycopy(s.holes, 0, resizeHoles(s.holes.length), 0, s.holes.length);
+    }
+
+    /**
+     * Накладывает дельту на этот снимок, который должен совпадать с её базой.
+     */
+    public void apply(StateDelta d) {
+        seq = d.seq;
+        tick = d.tick;
+        if (d.has(StateDelta.GAME_OVER)) {
+            gameOver = d.gameOver;
+            winner = d.winner;
+        }
+        if (d.has(StateDelta.CAT_POSITION)) {
+            catX = d.catX;
+            catY = d.catY;
+        }
+        if (d.has(StateDelta.CAT_VELOCITY)) {
+            catVx = d.catVx;
+            catVy = d.catVy;
+        }
+        if (d.has(StateDelta.CAT_INPUT)) catInputSeq = d.catInputSeq;
+
+        int hint = 0;
+        for (StateDelta.MouseDelta m : d.mice) {
+            int i = indexOf(m.id, hint);
+            if (i < 0) i = addMouse(m.id);
+            hint = i + 1;
+            if (m.has(StateDelta.MOUSE_X)) mouseX[i] = m.x;
+            if (m.has(StateDelta.MOUSE_Y)) mouseY[i] = m.y;
+            if (m.has(StateDelta.MOUSE_VELOCITY)) {
+                mouseVx[i] = m.vx;
+                mouseVy[i] = m.vy;
+            }
+            if (m.has(StateDelta.MOUSE_FLAGS)) mouseFlags[i] = StateSnapshot.mouseFlags(m.alive, m.carryingCheese, m.lastFacingLeft);
+            if (m.has(StateDelta.MOUSE_COUNT)) mouseCarried[i] = m.carriedCheeseCount;
+            if (m.has(StateDelta.MOUSE_INPUT)) mouseInputSeq[i] = m.inputSeq;
+        }
+        for (int id : d.removedMice) {
+            removeMouse(id);
+        }
+
+        if (d.has(StateDelta.CHEESE)) System.arraycopy(d.cheese, 0, resizeCheese(d.cheese.length), 0, d.cheese.length);
+        if (d.has(StateDelta.HOLES)) System.arraycopy(d.holes, 0, resizeHoles(d.holes.length), 0, d.holes.length);
+    }
+
+    public StateSnapshot toSnapshot() {
+        int n = miceCount;
+        return new StateSnapshot(seq, tick, tickRate, gameOver, winner, catX, catY, catVx, catVy, catInputSeq,
+                Arrays.copyOf(mouseId, n), Arrays.copyOf(mouseX, n), Arrays.copyOf(mouseY, n),
+                Arrays.copyOf(mouseVx, n), Arrays.copyOf(mouseVy, n), Arrays.copyOf(mouseFlags, n),
+                Arrays.copyOf(mouseCarried, n), Arrays.copyOf(mouseInputSeq, n),
+                Arrays.copyOf(cheese, cheeseLength), Arrays.copyOf(holes, holeLength));
+    }
+
+    private void ensureMice(int capacity) {
+        if (mouseId.length >= capacity) return;
+        int size = Math.max(capacity, Math.max(8, mouseId.length * 2));
+        mouseId = Arrays.copyOf(mouseId, size);
+        mouseX = Arrays.copyOf(mouseX, size);
+        mouseY = Arrays.copyOf(mouseY, size);
+        mouseVx = Arrays.copyOf(mouseVx, size);
+        mouseVy = Arrays.copyOf(mouseVy, size);
+        mouseFlags = Arrays.copyOf(mouseFlags, size);
+        mouseCarried = Arrays.copyOf(mouseCarried, size);
+        mouseInputSeq = Arrays.copyOf(mouseInputSeq, size);
+    }
+}
@@ -0,0 +1,171 @@
+package ru.itis.protocol;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Разница между снимком {@code seq} и снимком {@code baselineSeq}, который клиент уже подтвердил.
+ * Передаются только изменившиеся поля и сущности. Тик передаётся всегда, частота тиков берётся из базы.
+ */
+public class StateDelta implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int GAME_OVER = 1;
+    public static final int CAT_POSITION = 1 << 1;
+    public static final int CAT_VELOCITY = 1 << 2;
+    public static final int CHEESE = 1 << 3;
+    public static final int HOLES = 1 << 4;
+    public static final int CAT_INPUT = 1 << 5;
+
+    public static final int MOUSE_X = 1;
+    public static final int MOUSE_Y = 1 << 1;
+    public static final int MOUSE_VELOCITY = 1 << 2;
+    public static final int MOUSE_FLAGS = 1 << 3;
+    public static final int MOUSE_COUNT = 1 << 4;
+    public static final int MOUSE_INPUT = 1 << 5;
+    public static final int MOUSE_ALL = MOUSE_X | MOUSE_Y | MOUSE_VELOCITY | MOUSE_FLAGS | MOUSE_COUNT | MOUSE_INPUT;
+
+    public final int seq;
+    public final int baselineSeq;
+    public final int tick;
+    public final int changes;
+    public final boolean gameOver;
+    public final String winner;
+    public final int catX, catY;
+    public final int catVx, catVy;
+    public final int catInputSeq;
+    public final List<MouseDelta> mice;
+    public final int[] removedMice;
+    public final int[] cheese;
+    public final int[] holes;
+
+    public StateDelta(int seq, int baselineSeq, int tick, int changes,
+                      boolean gameOver, String winner,
+                      int catX, int catY, int catVx, int catVy, int catInputSeq,
+                      List<MouseDelta> mice, int[] removedMice,
+                      int[] cheese, int[] holes) {
+        this.seq = seq;
+        this.baselineSeq = baselineSeq;
+        this.tick = tick;
+        this.changes = changes;
+        this.gameOver = gameOver;
+        this.winner = winner;
+        this.catX = catX;
+        this.catY = catY;
+        this.catVx = catVx;
+        this.catVy = catVy;
+        this.catInputSeq = catInputSeq;
+        this.mice = mice;
+        this.removedMice = removedMice;
+        this.cheese = cheese;
+        this.holes = holes;
+    }
+
+    public boolean has(int change) {
+        return (changes & change) != 0;
+    }
+
+    public static StateDelta diff(StateSnapshot base, StateSnapshot cur) {
+        int changes = changes(base, cur);
+        List<MouseDelta> mice = new ArrayList<>();
+        int hint = 0;
+        for (int i = 0, n = cur.miceCount(); i < n; i++) {
+            int old = base.indexOf(cur.mouseId[i], hint);
+            int mask = old < 0 ? MOUSE_ALL : compareMouse(base, old, cur, i);
+            if (old >= 0) hint = old + 1;
+            if (mask != 0) {
+                mice.add(new MouseDelta(mask, cur, i));
+            }
+        }
+        int[] removed = new int[countRemoved(base, cur)];
+        int r = 0;
+        for (int j = 0, n = base.miceCount(); j < n; j++) {
+            if (cur.indexOf(base.mouseId[j], j) < 0) removed[r++] = base.mouseId[j];
+        }
+
+        return new StateDelta(cur.seq, base.seq, cur.tick, changes, cur.gameOver, cur.winner,
+                cur.catX, cur.catY, cur.catVx, cur.catVy, cur.catInputSeq, mice, removed,
+                (changes & CHEESE) != 0 ? cur.cheese : null,
+                (changes & HOLES) != 0 ? cur.holes : null);
+    }
+
+    /**
+     * Маска изменившихся полей мира без мышей.
+     */
+    static int changes(StateSnapshot base, StateSnapshot cur) {
+        int changes = 0;
+        if (base.gameOver != cur.gameOver || !Objects.equals(base.winner, cur.winner)) changes |= GAME_OVER;
+        if (base.catX != cur.catX || base.catY != cur.catY) changes |= CAT_POSITION;
+        if (base.catVx != cur.catVx || base.catVy != cur.catVy) changes |= CAT_VELOCITY;
+        if (base.catInputSeq != cur.catInputSeq) changes |= CAT_INPUT;
+        // Пока сыр и норы не менялись, массивы общие, и сравнение заканчивается на ссылке
+        if (!Arrays.equals(base.cheese, cur.cheese)) changes |= CHEESE;
+        if (!Arrays.equals(base.holes, cur.holes)) changes |= HOLES;
+        return changes;
+    }
+
+    /**
+     * Маска изменившихся полей мыши: old - её индекс в base, i - в cur.
+     */
+    static int compareMouse(StateSnapshot base, int old, StateSnapshot cur, int i) {
+        int mask = 0;
+        if (base.mouseX[old] != cur.mouseX[i]) mask |= MOUSE_X;
+        if (base.mouseY[old] != cur.mouseY[i]) mask |= MOUSE_Y;
+        if (base.mouseVx[old] != cur.mouseVx[i] || base.mouseVy[old] != cur.mouseVy[i]) mask |= MOUSE_VELOCITY;
+        if (base.mouseFlags[old] != cur.mouseFlags[i]) mask |= MOUSE_FLAGS;
+        if (base.mouseCarried[old] != cur.mouseCarried[i]) mask |= MOUSE_COUNT;
+        if (base.mouseInputSeq[old] != cur.mouseInputSeq[i]) mask |= MOUSE_INPUT;
+        return mask;
+    }
+
+    static int countRemoved(StateSnapshot base, StateSnapshot cur) {
+        int removed = 0;
+        for (int j = 0, n = base.miceCount(); j < n; j++) {
+            if (cur.indexOf(base.mouseId[j], j) < 0) removed++;
+        }
+        return removed;
+    }
+
+    public static class MouseDelta implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public final int mask;
+        public final int id;
+        public final int x, y;
+        public final int vx, vy;
+        public final boolean alive;
+        public final boolean carryingCheese;
+        public final int carriedCheeseCount;
+        public final boolean lastFacingLeft;
+        public final int inputSeq;
+
+        public MouseDelta(int mask, int id, int x, int y, int vx, int vy,
+                          boolean alive, boolean carryingCheese, int carriedCheeseCount, boolean lastFacingLeft,
+                          int inputSeq) {
+            this.mask = mask;
+            this.id = id;
+            this.x = x;
+            this.y = y;
+            this.vx = vx;
+            this.vy = vy;
+            this.alive = alive;
+            this.carryingCheese = carryingCheese;
+            this.carriedCheeseCount = carriedCheeseCount;
+            this.lastFacingLeft = lastFacingLeft;
+            this.inputSeq = inputSeq;
+        }
+
+        MouseDelta(int mask, StateSnapshot s, int i) {
+            this(mask, s.mouseId[i], s.mouseX[i], s.mouseY[i], s.mouseVx[i], s.mouseVy[i],
+                    s.mouseHas(i, StateSnapshot.ALIVE), s.mouseHas(i, StateSnapshot.CARRYING_CHEESE),
+                    s.mouseCarried[i], s.mouseHas(i, StateSnapshot.FACING_LEFT), s.mouseInputSeq[i]);
+        }
+
+        public boolean has(int field) {
+            return (mask & field) != 0;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package ru.itis.protocol;
+
+/**
+ * Последние принятые снимки - базы для дельт. Кольцо заранее выделенных StateBuffer плюс запасной буфер:
+ * кодек пишет новый снимок в запасной, commit() ставит его в кольцо на место самого старого,
+ * а вытесненный становится запасным. Поэтому приём STATE и STATE_DELTA не выделяет память.
+ * Используется одним потоком - тем, что читает соединение.
+ */
+public final class StateHistory {
+    public enum Result {
+        ACCEPTED,
+        // Снимок не новее уже принятого
+        STALE,
+        // Базы дельты уже нет, нужен полный снимок
+        NO_BASELINE
+    }
+
+    private final StateBuffer[] ring;
+    private StateBuffer spare = new StateBuffer();
+    private int newest = -1;
+    private int count = 0;
+    private int lastSeq = 0;
+    private Result lastResult = Result.STALE;
+
+    public StateHistory(int capacity) {
+        ring = new StateBuffer[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new StateBuffer();
+        }
+    }
+
+    /**
+     * Что стало с последним разобранным снимком или дельтой.
+     */
+    public Result lastResult() {
+        return lastResult;
+    }
+
+    /**
+     * Последний принятый снимок или null. Действителен до следующего разбора.
+     */
+    public StateBuffer latest() {
+        return count == 0 ? null : ring[newest];
+    }
+
+    public void add(StateSnapshot state) {
+        spare.set(state);
+        commit();
+    }
+
+    public void add(StateDelta delta) {
+        if (isStale(delta.seq)) {
+            reject(Result.STALE);
+            return;
+        }
+        StateBuffer base = find(delta.baselineSeq);
+        if (base == null) {
+            reject(Result.NO_BASELINE);
+            return;
+        }
+        spare.copyFrom(base);
+        spare.apply(delta);
+        commit();
+    }
+
+    boolean isStale(int seq) {
+        return seq <= lastSeq;
+    }
+
+    StateBuffer find(int seq) {
+        for (int i = 0; i < count; i++) {
+            StateBuffer s = ring[(newest - i + ring.length) % ring.length];
+            if (s.seq == seq) return s;
+        }
+        return null;
+    }
+
+    /**
+     * Буфер, в который пишется следующий снимок; в кольцо он попадёт только после commit().
+     */
+    StateBuffer spare() {
+        return spare;
+    }
+
+    void commit() {
+        if (isStale(spare.seq)) {
+            reject(Result.STALE);
+            return;
+        }
+        newest = (newest + 1) % ring.length;
+        StateBuffer evicted = ring[newest];
+        ring[newest] = spare;
+        spare = evicted;
+        if (count < ring.length) count++;
+        lastSeq = ring[newest].seq;
+        lastResult = Result.ACCEPTED;
+    }
+
+    void reject(Result result) {
+        lastResult = result;
+    }
+}
@@ -0,0 +1,93 @@
+package ru.itis.protocol;
+
+import java.io.Serializable;
+
+/**
+ * Неизменяемый снимок мира: его публикует GameState после каждого изменения, он же уходит клиентам в STATE.
+ * seq растёт с каждой публикацией; tick - номер тика симуляции, которому соответствует снимок; tickRate - тиков в секунду.
+ * Мыши лежат параллельными массивами одной длины, признаки - биты ALIVE, CARRYING_CHEESE, FACING_LEFT.
+ * Сыр и норы хранятся плоскими массивами x0, y0, x1, y1, ... и могут быть общими для нескольких снимков.
+ * Массивы после создания снимка не меняются, поэтому его читают из любого потока без копирования.
+ * catInputSeq и mouseInputSeq - номер последнего ввода игрока, который сервер успел применить.
+ */
+public class StateSnapshot implements Serializable {
+    private static final long serialVersionUID = 2L;
+
+    public static final int ALIVE = 1;
+    public static final int CARRYING_CHEESE = 1 << 1;
+    public static final int FACING_LEFT = 1 << 2;
+
+    public final int seq;
+    public final int tick;
+    public final int tickRate;
+    public final boolean gameOver;
+    public final String winner;
+    public final int catX, catY;
+    public final int catVx, catVy;
+    public final int catInputSeq;
+    public final int[] mouseId;
+    public final int[] mouseX, mouseY;
+    public final int[] mouseVx, mouseVy;
+    public final int[] mouseFlags;
+    public final int[] mouseCarried;
+    public final int[] mouseInputSeq;
+    public final int[] cheese;
+    public final int[] holes;
+
+    /**
+     * Массивы переходят снимку, менять их после вызова нельзя.
+     */
+    public StateSnapshot(int seq, int tick, int tickRate, boolean gameOver, String winner,
+                         int catX, int catY, int catVx, int catVy, int catInputSeq,
+                         int[] mouseId, int[] mouseX, int[] mouseY, int[] mouseVx, int[] mouseVy,
+                         int[] mouseFlags, int[] mouseCarried, int[] mouseInputSeq,
+                         int[] cheese, int[] holes) {
+        this.seq = seq;
+        this.tick = tick;
+        this.tickRate = tickRate;
+        this.gameOver = gameOver;
+        this.winner = winner;
+        this.catX = catX;
+        this.catY = catY;
+        this.catVx = catVx;
+        this.catVy = catVy;
+        this.catInputSeq = catInputSeq;
+        this.mouseId = mouseId;
+        this.mouseX = mouseX;
+        this.mouseY = mouseY;
+        this.mouseVx = mouseVx;
+        this.mouseVy = mouseVy;
+        this.mouseFlags = mouseFlags;
+        this.mouseCarried = mouseCarried;
+        this.mouseInputSeq = mouseInputSeq;
+        this.cheese = cheese;
+        this.holes = holes;
+    }
+
+    public int miceCount() {
+        return mouseId.length;
+    }
+
+    public boolean mouseHas(int i, int flag) {
+        return (mouseFlags[i] & flag) != 0;
+    }
+
+    /**
+     * Индекс мыши с этим id или -1; поиск начинается с hint, как в StateBuffer.indexOf.
+     */
+    public int indexOf(int id, int hint) {
+        int n = mouseId.length;
+        if (hint < 0 || hint >= n) hint = 0;
+        for (int k = 0; k < n; k++) {
+            int i = hint + k < n ? hint + k : hint + k - n;
+            if (mouseId[i] == id) return i;
+        }
+        return -1;
+    }
+
+    public static int mouseFlags(boolean alive, boolean carrying, boolean facingLeft) {
+        return (alive ? ALIVE : 0)
+                | (carrying ? CARRYING_CHEESE : 0)
+                | (facingLeft ? FACING_LEFT : 0);
+    }
+}
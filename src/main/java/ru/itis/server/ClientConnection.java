@@ -0,0 +1,34 @@
+package ru.itis.server;
+
+import ru.itis.protocol.MessageCodec;
+
+/**
+ * Транспорт одного клиента. Получает уже закодированные кадры,
+ * входящие сообщения передает в {@link ClientHandler#handleMessage}.
+ */
+public interface ClientConnection {
+    /**
+     * Кодек, выбранный клиентом при подключении, или null, пока рукопожатие не прочитано.
+     */
+    MessageCodec getCodec();
+
+    /**
+     * Ставит кадр в исходящую очередь и сразу возвращается.
+     * Кадр может быть общим для нескольких клиентов, менять его нельзя.
+     *
+     * @param latestWins кадр состояния: неотправленный предыдущий такой кадр выбрасывается
+     */
+    void send(byte[] frame, boolean latestWins);
+
+    /**
+     * Как send, но кадр обгоняет всё, что ещё не отправлено. Для PING/PONG.
+     */
+    void sendUrgent(byte[] frame);
+
+    /**
+     * Дописывает уже поставленные кадры и закрывает соединение.
+     */
+    void closeAfterFlush();
+
+    void close();
+}
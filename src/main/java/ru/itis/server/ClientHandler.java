@@ -1,109 +1,113 @@
 package ru.itis.server;
 
 import ru.itis.model.GameState;
+import ru.itis.protocol.LatencyStats;
 import ru.itis.protocol.Message;
 import ru.itis.protocol.MessageType;
 
+import ru.itis.protocol.MessageCodec;
+
 import java.awt.*;
-import java.io.*;
-import java.net.Socket;
+import java.io.IOException;
 import java.util.Random;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
-public class ClientHandler extends Thread {
-    private final Socket socket;
-    private ObjectOutputStream out;
-    private ObjectInputStream in;
-
+public class ClientHandler {
     private final GameServer server;
     private final GameState gameState;
+    private ClientConnection connection;
 
-    private String clientId;
+    private final int clientId;
     private String role = "pending";
     private String playerName;
+    private volatile int ackedSeq = -1;
+    private volatile int requestedSendHz = 0;
+    private int sendAccumulator = 0;
+    private final LatencyStats latency = new LatencyStats();
 
-    public ClientHandler(Socket socket, GameServer server, GameState gameState) {
-        this.socket = socket;
+    public ClientHandler(GameServer server, GameState gameState) {
         this.server = server;
         this.gameState = gameState;
-        this.clientId = "client-" + System.currentTimeMillis();
+        this.clientId = server.allocateClientId();
     }
 
-    @Override
-    public void run() {
-        try {
-            out = new ObjectOutputStream(socket.getOutputStream());
-            in = new ObjectInputStream(socket.getInputStream());
-
-            while (!isInterrupted()) {
-                try {
-                    Message msg = (Message) in.readObject();
-                    if (msg == null) break;
-
-                    switch (msg.getType()) {
-                        case CONNECT:
-                            handleConnect(msg.getContent());
-                            break;
-                        case DISCONNECT:
-                            handleDisconnect();
-                            return;
-                        case SET_VELOCITY:
-                            handleSetVelocity(msg.getContent());
-                            break;
-                        case ASSIGN_ROLE:
-                            handleAssignRole(msg.getContent());
-                            break;
-                        case START_GAME:
-                            handleStartGame(msg.getContent());
-                            break;
-                        case KICK_PLAYER:
-                            handleKickPlayer(msg.getContent());
-                            break;
-                        default:
-                    }
+    public void setConnection(ClientConnection connection) {
+        this.connection = connection;
+    }
 
-                    if (gameState.isGameOver() && server.isGameStarted()) {
-                        broadcastState();
-                        try {
-                            Thread.sleep(2000);
-                        } catch (InterruptedException e) {
-                        }
-                        server.resetLobby();
-                    }
-                } catch (IOException | ClassNotFoundException e) {
-                    System.out.println("[Server] Error processing message from client " + clientId + ": " + e.getMessage());
-                    break;
-                }
-            }
-        } catch (IOException e) {
-            System.out.println("[Server] Client " + clientId + " disconnected/error: " + e.getMessage());
-        } finally {
-            server.getClients().remove(this);
-            close();
-            if (!server.isGameStarted()) {
-                server.broadcastLobbyUpdate();
-            }
+    public void handleMessage(Message msg) {
+        if (msg == null) return;
+
+        switch (msg.getType()) {
+            case CONNECT:
+                handleConnect(msg.getContent());
+                break;
+            case DISCONNECT:
+                handleDisconnect();
+                return;
+            case SET_VELOCITY:
+                handleSetVelocity(msg.getContent());
+                break;
+            case ASSIGN_ROLE:
+                handleAssignRole(msg.getContent());
+                break;
+            case START_GAME:
+                handleStartGame(msg.getContent());
+                break;
+            case KICK_PLAYER:
+                handleKickPlayer(msg.getContent());
+                break;
+            case STATE_ACK:
+                handleStateAck(msg.getContent());
+                return;
+            case SET_SEND_RATE:
+                handleSetSendRate(msg.getContent());
+                return;
+            // Отвечаем сразу в потоке чтения, мимо игровой логики и впереди очереди, чтобы не искажать замер
+            case PING:
+                sendUrgent(new Message(MessageType.PONG,
+                        LatencyStats.pongContent(msg.getContent(), System.currentTimeMillis())));
+                return;
+            case PONG:
+                latency.onPong(msg.getContent(), System.nanoTime(), System.currentTimeMillis());
+                return;
+            default:
+        }
+
+        if (gameState.isGameOver() && server.isGameStarted()) {
+            broadcastState();
+            // Не держим поток чтения (или I/O поток NIO) две секунды
+            server.scheduleLobbyReset();
+        }
+    }
+
+    public void onDisconnected() {
+        server.getClients().remove(this);
+        if (!server.isGameStarted() && server.isRunning()) {
+            server.broadcastLobbyUpdate();
         }
     }
 
-    private void handleKickPlayer(String clientId) {
-        if (!this.clientId.equals(server.getHostId())) {
+    private void handleKickPlayer(String content) {
+        if (clientId != server.getHostId()) {
             System.out.println("[Server] Non-host tried to kick a player!");
             return;
         }
+        int targetId = parseNumber(content);
 
         ClientHandler target = null;
         for (ClientHandler ch : server.getClients()) {
-            if (ch.getClientId().equals(clientId)) {
+            if (ch.getClientId() == targetId) {
                 target = ch;
                 break;
             }
         }
 
         if (target != null) {
-            server.getGameState().removeMouse(clientId);
+            server.getGameState().removeMouse(targetId);
             target.sendMessage(new Message(MessageType.DISCONNECT, "You have been kicked from the game."));
-            target.close();
+            target.closeAfterFlush();
             server.getClients().remove(target);
             System.out.println("[Server] Kicked player: " + target.getPlayerName());
             server.broadcastLobbyUpdate();
@@ -118,12 +122,12 @@ public class ClientHandler extends Thread {
         playerName = arr[1];
 
         if (server.isLobbyMode()) {
-            if (server.getHostId() == null && "host".equals(connectType)) {
+            if (server.getHostId() == GameServer.NO_HOST && "host".equals(connectType)) {
                 server.setHostId(clientId);
                 role = "cat";
                 gameState.setCatPosition(GameState.WIDTH / 2, GameState.HEIGHT / 2); // Кот в центре
                 System.out.println("[Server] " + clientId + " is HOST+CAT in center");
-                sendMessage(new Message(MessageType.ASSIGN_ROLE, "cat"));
+                sendMessage(new Message(MessageType.ASSIGN_ROLE, "cat|" + clientId));
             } else {
                 role = "mouse";
                 List<Point> holes = gameState.getHoles();
@@ -136,7 +140,7 @@ public class ClientHandler extends Thread {
 
                 gameState.addMouse(clientId, x, y);
                 System.out.println("[Server] " + clientId + " joined as mouse near hole=" + hole + " => (" + x + "," + y + ")");
-                sendMessage(new Message(MessageType.ASSIGN_ROLE, "mouse"));
+                sendMessage(new Message(MessageType.ASSIGN_ROLE, "mouse|" + clientId));
             }
             server.broadcastLobbyUpdate();
         }
@@ -148,28 +152,85 @@ public class ClientHandler extends Thread {
     }
 
     private void handleSetVelocity(String msg) {
+        if (msg == null) return;
         String[] arr = msg.split(",");
-        int vx = Integer.parseInt(arr[0]);
-        int vy = Integer.parseInt(arr[1]);
+        int vx, vy, seq;
+        try {
+            vx = Integer.parseInt(arr[0].trim());
+            vy = Integer.parseInt(arr[1].trim());
+            // Номер ввода подтверждается в снимках, по нему клиент сверяет своё предсказание
+            seq = arr.length > 2 ? Integer.parseInt(arr[2].trim()) : 0;
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.out.println("[Server] Bad velocity from " + clientId + ": " + msg);
+            return;
+        }
         if ("cat".equals(role)) {
-            gameState.setCatVelocity(vx, vy);
+            gameState.setCatVelocity(vx, vy, seq);
         } else if ("mouse".equals(role)) {
-            gameState.setMouseVelocity(clientId, vx, vy);
+            gameState.setMouseVelocity(clientId, vx, vy, seq);
+        }
+    }
+
+    // content = "seq,viewTick": подтверждённый снимок и тик, который клиент сейчас показывает
+    private void handleStateAck(String content) {
+        if (content == null) return;
+        String[] arr = content.split(",");
+        try {
+            ackedSeq = Integer.parseInt(arr[0]);
+        } catch (NumberFormatException e) {
+            ackedSeq = -1;
+        }
+        if (arr.length > 1 && "cat".equals(role)) {
+            try {
+                int viewTick = Integer.parseInt(arr[1]);
+                if (viewTick >= 0) gameState.setCatViewLag(Math.min(gameState.getTick() - viewTick, maxViewLagTicks()));
+            } catch (NumberFormatException e) {
+                // Без тика просто не обновляем отставание
+            }
         }
     }
 
+    // Тик из подтверждения отстаёт на RTT плюс задержку отрисовки клиента; больше - сбой или попытка выиграть откат
+    private int maxViewLagTicks() {
+        if (!latency.hasSamples()) return Integer.MAX_VALUE;
+        ServerConfig config = server.getConfig();
+        long nanos = latency.getRttNanos() + 2 * latency.getJitterNanos()
+                + TimeUnit.MILLISECONDS.toNanos(config.getMaxViewDelayMs());
+        return (int) (nanos * config.getSimulationHz() / TimeUnit.SECONDS.toNanos(1)) + 1;
+    }
+
+    private void handleSetSendRate(String content) {
+        if (content == null) return;
+        try {
+            requestedSendHz = Math.max(0, Integer.parseInt(content.trim()));
+            System.out.println("[Server] " + clientId + " requested " + requestedSendHz + " snapshots/s");
+        } catch (NumberFormatException e) {
+            System.out.println("[Server] Bad send rate from " + clientId + ": " + content);
+        }
+    }
+
+    // Вызывается только из GameServer.sendState под его монитором
+    boolean isStateDue(int serverSendHz) {
+        int hz = requestedSendHz;
+        if (hz <= 0 || hz >= serverSendHz) return true;
+        sendAccumulator += hz;
+        if (sendAccumulator < serverSendHz) return false;
+        sendAccumulator -= serverSendHz;
+        return true;
+    }
+
     private void handleAssignRole(String content) {
-        if (!clientId.equals(server.getHostId())) {
+        if (clientId != server.getHostId()) {
             System.out.println("[Server] Non-host tried to assign roles!");
             return;
         }
         String[] arr = content.split(",");
         if (arr.length != 2) return;
-        String targetId = arr[0];
+        int targetId = parseNumber(arr[0]);
         String newRole = arr[1];
         ClientHandler targetHandler = null;
         for (ClientHandler ch : server.getClients()) {
-            if (ch.getClientId().equals(targetId)) {
+            if (ch.getClientId() == targetId) {
                 targetHandler = ch;
                 break;
             }
@@ -187,8 +248,9 @@ public class ClientHandler extends Thread {
         if ("cat".equals(newRole)) {
             for (ClientHandler ch2 : server.getClients()) {
                 if ("cat".equals(ch2.getRole())) {
-                    if (!ch2.getClientId().equals(targetId)) {
+                    if (ch2.getClientId() != targetId) {
                         ch2.setRole("mouse");
+                        ch2.sendMessage(new Message(MessageType.ASSIGN_ROLE, "mouse|" + ch2.getClientId()));
                         int x = (int) (Math.random() * 300 + 50);
                         int y = (int) (Math.random() * 300 + 50);
                         gameState.addMouse(ch2.getClientId(), x, y);
@@ -209,12 +271,17 @@ public class ClientHandler extends Thread {
 
             targetHandler.setRole("mouse");
         }
-        targetHandler.sendMessage(new Message(MessageType.ASSIGN_ROLE, newRole));
+        targetHandler.sendMessage(new Message(MessageType.ASSIGN_ROLE, newRole + "|" + targetId));
         server.broadcastLobbyUpdate();
     }
 
     private void handleStartGame(String content) {
-        if (!clientId.equals(server.getHostId())) return;
+        if (clientId != server.getHostId()) return;
+        int cheeseToWin = parseNumber(content);
+        if (cheeseToWin <= 0) {
+            System.out.println("[Server] Bad cheese count from host: " + content);
+            return;
+        }
         if (!hasAtLeastOneCatAndMouse()) {
             System.out.println("[Server] Not enough roles to start!");
             return;
@@ -223,7 +290,7 @@ public class ClientHandler extends Thread {
         server.broadcast(new Message(MessageType.START_GAME, "start"));
         server.getGameState().setCatPosition(GameState.WIDTH / 2, GameState.HEIGHT / 2);
         GameState gameState = server.getGameState();
-        gameState.setTotalCheeseToWin(Integer.parseInt(content));
+        gameState.setTotalCheeseToWin(cheeseToWin);
         Random rnd = new Random();
         List<Point> holes = gameState.getHoles();
         for (ClientHandler ch : server.getClients()) {
@@ -241,6 +308,16 @@ public class ClientHandler extends Thread {
         broadcastState();
     }
 
+    // -1, если пришло не число
+    private static int parseNumber(String s) {
+        if (s == null) return -1;
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     private boolean hasAtLeastOneCatAndMouse() {
         boolean catFound = false, mouseFound = false;
         for (ClientHandler ch : server.getClients()) {
@@ -254,49 +331,26 @@ public class ClientHandler extends Thread {
     }
 
     private void broadcastState() {
-        server.broadcast(createStateMessage());
+        server.broadcastState();
     }
 
-    private Message createStateMessage() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("GAMEOVER|").append(gameState.isGameOver()).append(",")
-                .append(gameState.getWinner() == null ? "none" : gameState.getWinner());
-
-        sb.append(";CAT|").append(gameState.getCatX()).append(",").append(gameState.getCatY()).append(",").append(gameState.getCatVelX()).append(",").append(gameState.getCatVelY());
-
-        var mice = gameState.getAllMice();
-        for (var e : mice.entrySet()) {
-            String mid = e.getKey();
-            GameState.MouseInfo mi = e.getValue();
-            sb.append(";MOUSE|").append(mid).append(",")
-                    .append(mi.x).append(",").append(mi.y).append(",")
-                    .append(mi.vx).append(",").append(mi.vy).append(",")
-                    .append(mi.alive).append(",")
-                    .append(mi.carryingCheese).append(",")
-                    .append(mi.carriedCheeseCount).append(",")
-                    .append(mi.lastFacingLeft);
-        }
+    public int getClientId() {
+        return clientId;
+    }
 
-        var cheese = gameState.getCheeseList();
-        sb.append(";CHEESE|");
-        for (int i = 0; i < cheese.size(); i++) {
-            var c = cheese.get(i);
-            sb.append(c.x).append(",").append(c.y);
-            if (i < cheese.size() - 1) sb.append(",");
-        }
-        var holes = gameState.getHoles();
-        sb.append(";HOLES|");
-        for (int i = 0; i < holes.size(); i++) {
-            var h = holes.get(i);
-            sb.append(h.x).append(",").append(h.y);
-            if (i < holes.size() - 1) sb.append(",");
-        }
+    void sendPing() {
+        sendUrgent(new Message(MessageType.PING, LatencyStats.pingContent(System.nanoTime())));
+    }
 
-        return new Message(MessageType.STATE, sb.toString());
+    /**
+     * RTT, джиттер и смещение часов этого клиента; по RTT ограничивается отставание кота для компенсации задержки.
+     */
+    public LatencyStats getLatency() {
+        return latency;
     }
 
-    public String getClientId() {
-        return clientId;
+    public int getAckedSeq() {
+        return ackedSeq;
     }
 
     public String getRole() {
@@ -311,25 +365,44 @@ public class ClientHandler extends Thread {
         return playerName;
     }
 
+    public MessageCodec getCodec() {
+        ClientConnection c = connection;
+        return c == null ? null : c.getCodec();
+    }
+
     public void sendMessage(Message msg) {
+        MessageCodec codec = getCodec();
+        if (codec == null) return;
         try {
-            if (out != null) {
-                out.writeObject(msg);
-                out.flush();
-            }
+            sendFrame(codec.encode(msg), false);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    public void close() {
+    private void sendUrgent(Message msg) {
+        ClientConnection c = connection;
+        MessageCodec codec = c == null ? null : c.getCodec();
+        if (codec == null) return;
         try {
-            interrupt();
-            if (in != null) in.close();
-            if (out != null) out.close();
-            if (socket != null && !socket.isClosed()) socket.close();
+            c.sendUrgent(codec.encode(msg));
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
+
+    public void sendFrame(byte[] frame, boolean latestWins) {
+        ClientConnection c = connection;
+        if (c != null) c.send(frame, latestWins);
+    }
+
+    public void closeAfterFlush() {
+        ClientConnection c = connection;
+        if (c != null) c.closeAfterFlush();
+    }
+
+    public void close() {
+        ClientConnection c = connection;
+        if (c != null) c.close();
+    }
 }
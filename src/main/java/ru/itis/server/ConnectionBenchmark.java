@@ -0,0 +1,119 @@
+package ru.itis.server;
+
+import ru.itis.protocol.Message;
+import ru.itis.protocol.MessageCodec;
+import ru.itis.protocol.MessageType;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Сравнение режимов ввода-вывода сервера на большом числе простаивающих соединений.
+ * Запуск: java -cp target/classes ru.itis.server.ConnectionBenchmark [1000,5000,10000] [THREAD_PER_CLIENT,VIRTUAL_THREADS]
+ * Клиент и сервер живут в одном процессе, поэтому нужен лимит дескрипторов не меньше 2 * N (ulimit -n).
+ */
+public class ConnectionBenchmark {
+    private static final long CONNECT_TIMEOUT_MS = 60_000;
+
+    public static void main(String[] args) throws Exception {
+        String counts = args.length > 0 ? args[0] : "1000,5000,10000";
+        String modes = args.length > 1 ? args[1] : "THREAD_PER_CLIENT,VIRTUAL_THREADS";
+
+        int port = Integer.getInteger("bench.port", 17000);
+        List<String> results = new ArrayList<>();
+        for (String count : counts.split(",")) {
+            for (String mode : modes.split(",")) {
+                results.add(run(ServerConfig.IoMode.valueOf(mode.trim()), Integer.parseInt(count.trim()), port++));
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%-18s %8s %12s %10s %10s %10s%n", "mode", "clients", "connect ms", "threads", "heap MB", "bcast ms");
+        for (String line : results) {
+            System.out.println(line);
+        }
+    }
+
+    private static String run(ServerConfig.IoMode mode, int count, int port) throws InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        ServerConfig config = new ServerConfig();
+        config.setIoMode(mode);
+        GameServer server = new GameServer(port, true, config);
+        Thread serverThread = new Thread(server::startServer, "bench-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        waitForPort(port);
+        while (!server.getClients().isEmpty()) {
+            Thread.sleep(1);
+        }
+
+        long heapBefore = usedHeap();
+        int threadsBefore = threads.getThreadCount();
+        List<Socket> sockets = new ArrayList<>(count);
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                Socket socket = new Socket("localhost", port);
+                sockets.add(socket);
+                // Без байта кодека сервер не знает, чем кодировать, и пропускает клиента в рассылке
+                socket.getOutputStream().write(MessageCodec.BINARY);
+            }
+            long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+            while (server.getClients().size() < count || !allHaveCodec(server)) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("server accepted only " + server.getClients().size());
+                }
+                Thread.sleep(1);
+            }
+            long connectMs = (System.nanoTime() - start) / 1_000_000;
+            int platformThreads = threads.getThreadCount() - threadsBefore;
+            long heapMb = (usedHeap() - heapBefore) / (1024 * 1024);
+
+            long bcastStart = System.nanoTime();
+            server.broadcast(new Message(MessageType.LOBBY_UPDATE, "HOST|none;PLAYERS|"));
+            long bcastMs = (System.nanoTime() - bcastStart) / 1_000_000;
+
+            return String.format("%-18s %8d %12d %10d %10d %10d", mode, count, connectMs, platformThreads, heapMb, bcastMs);
+        } catch (IOException e) {
+            return String.format("%-18s %8d FAILED after %d connections: %s", mode, count, sockets.size(), e.getMessage());
+        } finally {
+            server.stopServer();
+            for (Socket s : sockets) {
+                try {
+                    s.close();
+                } catch (IOException e) {
+                }
+            }
+            serverThread.join(5_000);
+        }
+    }
+
+    private static boolean allHaveCodec(GameServer server) {
+        for (ClientHandler client : server.getClients()) {
+            if (client.getCodec() == null) return false;
+        }
+        return true;
+    }
+
+    private static void waitForPort(int port) throws InterruptedException {
+        for (int i = 0; i < 200; i++) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(10);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
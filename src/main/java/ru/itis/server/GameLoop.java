@@ -0,0 +1,111 @@
+package ru.itis.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Игровой цикл с фиксированным шагом и аккумулятором времени.
+ * Если шаги не успевают, цикл догоняет не больше maxCatchUpSteps за раз,
+ * остальное время выбрасывается и учитывается в статистике.
+ */
+public class GameLoop implements Runnable {
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final long stepNanos;
+    private final int maxCatchUpSteps;
+    private final Runnable step;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    private volatile long ticks;
+    private volatile long overruns;
+    private volatile long droppedSteps;
+    private volatile long lastTickNanos;
+    private volatile long maxTickNanos;
+    private long totalTickNanos;
+
+    public GameLoop(int hz, int maxCatchUpSteps, Runnable step) {
+        this.stepNanos = 1_000_000_000L / hz;
+        this.maxCatchUpSteps = Math.max(1, maxCatchUpSteps);
+        this.step = step;
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this, "game-loop");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (thread != null) thread.interrupt();
+    }
+
+    @Override
+    public void run() {
+        long previous = System.nanoTime();
+        long accumulator = 0;
+        long nextReport = previous + REPORT_INTERVAL_NANOS;
+        long reportedOverruns = 0, reportedDropped = 0;
+
+        while (running) {
+            long now = System.nanoTime();
+            accumulator += now - previous;
+            previous = now;
+
+            int steps = 0;
+            while (accumulator >= stepNanos && steps < maxCatchUpSteps) {
+                long start = System.nanoTime();
+                try {
+                    step.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                record(System.nanoTime() - start);
+                accumulator -= stepNanos;
+                steps++;
+            }
+            if (accumulator >= stepNanos) {
+                droppedSteps += accumulator / stepNanos;
+                accumulator %= stepNanos;
+            }
+
+            if (now >= nextReport) {
+                if (overruns != reportedOverruns || droppedSteps != reportedDropped) {
+                    System.out.println("[Server] Game loop is behind: " + (overruns - reportedOverruns) + " overruns, "
+                            + (droppedSteps - reportedDropped) + " dropped steps in last "
+                            + TimeUnit.NANOSECONDS.toSeconds(REPORT_INTERVAL_NANOS) + "s, " + statsLine());
+                    reportedOverruns = overruns;
+                    reportedDropped = droppedSteps;
+                }
+                nextReport = now + REPORT_INTERVAL_NANOS;
+            }
+
+            LockSupport.parkNanos(stepNanos - accumulator);
+        }
+    }
+
+    private void record(long tookNanos) {
+        ticks++;
+        totalTickNanos += tookNanos;
+        lastTickNanos = tookNanos;
+        if (tookNanos > maxTickNanos) maxTickNanos = tookNanos;
+        if (tookNanos > stepNanos) overruns++;
+    }
+
+    public long getTicks() { return ticks; }
+    public long getOverruns() { return overruns; }
+    public long getDroppedSteps() { return droppedSteps; }
+    public long getLastTickNanos() { return lastTickNanos; }
+    public long getMaxTickNanos() { return maxTickNanos; }
+    public long getStepNanos() { return stepNanos; }
+
+    public String statsLine() {
+        long n = ticks;
+        double avgMs = n == 0 ? 0 : totalTickNanos / (double) n / 1_000_000;
+        return String.format("ticks=%d avg=%.3fms max=%.3fms budget=%.3fms overruns=%d dropped=%d",
+                n, avgMs, maxTickNanos / 1_000_000.0, stepNanos / 1_000_000.0, overruns, droppedSteps);
+    }
+}
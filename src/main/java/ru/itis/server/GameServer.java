@@ -2,58 +2,81 @@ package ru.itis.server;
 
 import ru.itis.model.GameState;
 import ru.itis.protocol.Message;
+import ru.itis.protocol.MessageCodec;
 import ru.itis.protocol.MessageType;
+import ru.itis.protocol.StateSnapshot;
+import ru.itis.server.nio.NioServer;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class GameServer {
+    // Сколько последних снимков можно использовать как базу для дельты (~2 с при рассылке 30 Гц)
+    private static final int STATE_HISTORY = 64;
+    private static final long PING_INTERVAL_MS = 1000;
+
     private final int port;
     private ServerSocket serverSocket;
-    private boolean running;
+    private volatile boolean running;
+    private final ServerConfig config;
+    private NioServer nioServer;
 
     private final CopyOnWriteArrayList<ClientHandler> clients = new CopyOnWriteArrayList<>();
     private final GameState gameState = new GameState();
 
     private final boolean isLobbyMode;
     private volatile boolean gameStarted = false;
-    private volatile String hostId = null;
+    public static final int NO_HOST = 0;
+
+    private volatile int hostId = NO_HOST;
+    // Id игроков - маленькие числа, уникальные в пределах жизни сервера
+    private final AtomicInteger lastClientId = new AtomicInteger(NO_HOST);
     private ScheduledExecutorService exec;
+    private GameLoop gameLoop;
+    private final AtomicBoolean resetScheduled = new AtomicBoolean(false);
+
+    private final StateSnapshot[] stateHistory = new StateSnapshot[STATE_HISTORY];
+    // Кадры текущей рассылки по (id кодека, слот базы), слот STATE_HISTORY - полный снимок.
+    // Кадр годен, пока помечен номером текущего снимка, так что между тиками ничего не чистится
+    private final byte[][] sharedFrames = new byte[(MessageCodec.BINARY + 1) * (STATE_HISTORY + 1)][];
+    private final int[] sharedFrameSeq = new int[sharedFrames.length];
+    private int sendAccumulator = 0;
 
-    public GameServer(int port, boolean isLobbyMode, String hostId) {
+    public GameServer(int port, boolean isLobbyMode) {
+        this(port, isLobbyMode, ServerConfig.fromSystemProperties());
+    }
+
+    public GameServer(int port, boolean isLobbyMode, ServerConfig config) {
         this.port = port;
         this.isLobbyMode = isLobbyMode;
-        this.hostId = hostId;
+        this.config = config;
+        gameState.setTickRate(config.getSimulationHz());
+        gameState.setMaxRewindTicks(config.getMaxRewindMs() * config.getSimulationHz() / 1000);
     }
 
     public void startServer() {
         try {
-            serverSocket = new ServerSocket(port);
             running = true;
-            System.out.println("Server started on port " + port);
 
             exec = Executors.newSingleThreadScheduledExecutor();
-            exec.scheduleAtFixedRate(() -> {
-                if (!gameStarted) return;
-                gameState.updatePositions();
-                broadcastState();
-            }, 0, 16, TimeUnit.MILLISECONDS);
+            exec.scheduleAtFixedRate(this::pingClients, PING_INTERVAL_MS, PING_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            gameLoop = new GameLoop(config.getSimulationHz(), config.getMaxCatchUpTicks(), this::tick);
+            gameLoop.start();
 
-            while (running) {
-                try {
-                    Socket socket = serverSocket.accept();
-                    System.out.println("Accepted connection: " + socket);
-                    ClientHandler handler = new ClientHandler(socket, this, gameState);
-                    handler.start();
-                    clients.add(handler);
-                } catch (IOException e) {
-                    System.err.println("Error accepting connection: " + e.getMessage());
-                }
+            if (config.getIoMode() == ServerConfig.IoMode.NIO) {
+                acceptNio();
+            } else {
+                acceptBlocking();
             }
         } catch (IOException e) {
             System.err.println("Server error: " + e.getMessage());
@@ -62,63 +85,154 @@ public class GameServer {
         }
     }
 
+    private void tick() {
+        if (!gameStarted) return;
+        gameState.updatePositions();
+
+        // Снимки рассылаются с частотой sendHz, даже если она не делит частоту симуляции нацело
+        sendAccumulator += config.getSendHz();
+        if (sendAccumulator >= config.getSimulationHz()) {
+            sendAccumulator -= config.getSimulationHz();
+            sendState(true);
+        }
+    }
+
+    private void acceptBlocking() throws IOException {
+        serverSocket = new ServerSocket(port);
+        boolean virtual = config.getIoMode() == ServerConfig.IoMode.VIRTUAL_THREADS;
+        Thread.Builder ioThreads = virtual
+                ? Thread.ofVirtual().name("client-io-", 0)
+                : Thread.ofPlatform().name("client-io-", 0);
+        System.out.println("Server started on port " + port + (virtual ? " (virtual threads)" : ""));
+
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                System.out.println("Accepted connection: " + socket);
+                ClientHandler handler = new ClientHandler(this, gameState);
+                SocketConnection connection = new SocketConnection(socket, handler, config);
+                handler.setConnection(connection);
+                clients.add(handler);
+                connection.start(ioThreads);
+            } catch (IOException e) {
+                if (running) System.err.println("Error accepting connection: " + e.getMessage());
+            }
+        }
+    }
+
+    private void acceptNio() throws IOException {
+        nioServer = new NioServer(config);
+        nioServer.start();
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind(new InetSocketAddress(port));
+        serverSocket = channel.socket();
+        System.out.println("Server started on port " + port + " (NIO, " + config.getIoThreads() + " I/O threads)");
+
+        while (running) {
+            try {
+                SocketChannel socket = channel.accept();
+                System.out.println("Accepted connection: " + socket);
+                ClientHandler handler = new ClientHandler(this, gameState);
+                clients.add(handler);
+                try {
+                    nioServer.register(socket, handler);
+                } catch (IOException e) {
+                    clients.remove(handler);
+                    socket.close();
+                    throw e;
+                }
+            } catch (IOException e) {
+                if (running) System.err.println("Error accepting connection: " + e.getMessage());
+            }
+        }
+    }
+
     public void stopServer() {
         running = false;
         try {
             if (serverSocket != null) serverSocket.close();
+            if (gameLoop != null) gameLoop.stop();
             if (exec != null) exec.shutdown();
             for (ClientHandler ch : clients) ch.close();
+            if (nioServer != null) nioServer.stop();
         } catch (IOException e) {}
     }
 
+    public void scheduleLobbyReset() {
+        if (!resetScheduled.compareAndSet(false, true)) return;
+        exec.schedule(this::resetLobby, 2, TimeUnit.SECONDS);
+    }
+
+    private void pingClients() {
+        for (ClientHandler ch : clients) {
+            ch.sendPing();
+        }
+    }
+
     public void broadcast(Message msg) {
+        byte[][] frames = new byte[2][];
         for (ClientHandler ch : clients) {
-            ch.sendMessage(msg);
+            MessageCodec codec = ch.getCodec();
+            if (codec == null) continue;
+            byte[] frame = frames[codec.id()];
+            if (frame == null) {
+                frame = encode(codec, msg);
+                if (frame == null) return;
+                frames[codec.id()] = frame;
+            }
+            ch.sendFrame(frame, false);
         }
     }
 
-    private void broadcastState() {
-        String content = createStateMessage();
-        broadcast(new Message(MessageType.STATE, content));
+    public void broadcastState() {
+        sendState(false);
     }
 
-    private String createStateMessage() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("GAMEOVER|").append(gameState.isGameOver()).append(",")
-                .append(gameState.getWinner() == null ? "none" : gameState.getWinner());
-
-        sb.append(";CAT|").append(gameState.getCatX()).append(",").append(gameState.getCatY()).append(",").append(gameState.getCatVelX()).append(",").append(gameState.getCatVelY());
-
-        var mice = gameState.getAllMice();
-        for (var e : mice.entrySet()) {
-            String mid = e.getKey();
-            GameState.MouseInfo mi = e.getValue();
-            sb.append(";MOUSE|").append(mid).append(",")
-                    .append(mi.x).append(",").append(mi.y).append(",")
-                    .append(mi.vx).append(",").append(mi.vy).append(",")
-                    .append(mi.alive).append(",")
-                    .append(mi.carryingCheese).append(",")
-                    .append(mi.carriedCheeseCount).append(",")
-                    .append(mi.lastFacingLeft);
+    private synchronized void sendState(boolean respectClientRates) {
+        // Опубликованный снимок неизменяем и уходит как есть; его seq - номер публикации в GameState
+        StateSnapshot current = gameState.getSnapshot();
+        stateHistory[current.seq % STATE_HISTORY] = current;
+
+        // Клиенты с одинаковыми кодеком и базой получают один и тот же массив байт
+        for (ClientHandler ch : clients) {
+            MessageCodec codec = ch.getCodec();
+            if (codec == null) continue;
+            if (respectClientRates && !ch.isStateDue(config.getSendHz())) continue;
+            StateSnapshot baseline = findBaseline(ch.getAckedSeq());
+            int slot = codec.id() * (STATE_HISTORY + 1) + (baseline == null ? STATE_HISTORY : baseline.seq % STATE_HISTORY);
+            byte[] frame = sharedFrameSeq[slot] == current.seq ? sharedFrames[slot] : null;
+            if (frame == null) {
+                frame = baseline == null ? encode(codec, new Message(current)) : encodeDelta(codec, baseline, current);
+                if (frame == null) continue;
+                sharedFrames[slot] = frame;
+                sharedFrameSeq[slot] = current.seq;
+            }
+            ch.sendFrame(frame, true);
         }
+    }
 
-        var cheese = gameState.getCheeseList();
-        sb.append(";CHEESE|");
-        for (int i = 0; i < cheese.size(); i++) {
-            var c = cheese.get(i);
-            sb.append(c.x).append(",").append(c.y);
-            if (i < cheese.size() - 1) sb.append(",");
+    private byte[] encode(MessageCodec codec, Message msg) {
+        try {
+            return codec.encode(msg);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
         }
+    }
 
-        var holes = gameState.getHoles();
-        sb.append(";HOLES|");
-        for (int i = 0; i < holes.size(); i++) {
-            var h = holes.get(i);
-            sb.append(h.x).append(",").append(h.y);
-            if (i < holes.size() - 1) sb.append(",");
+    private byte[] encodeDelta(MessageCodec codec, StateSnapshot baseline, StateSnapshot current) {
+        try {
+            return codec.encodeDelta(baseline, current);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
         }
+    }
 
-        return sb.toString();
+    private StateSnapshot findBaseline(int seq) {
+        if (seq <= 0) return null;
+        StateSnapshot baseline = stateHistory[seq % STATE_HISTORY];
+        return baseline != null && baseline.seq == seq ? baseline : null;
     }
 
     public CopyOnWriteArrayList<ClientHandler> getClients() {
@@ -128,14 +242,20 @@ public class GameServer {
         return gameState;
     }
 
+    public GameLoop getGameLoop() { return gameLoop; }
+
+    public ServerConfig getConfig() { return config; }
+    public boolean isRunning() { return running; }
     public boolean isLobbyMode() { return isLobbyMode; }
     public boolean isGameStarted() { return gameStarted; }
     public void setGameStarted(boolean val) { gameStarted=val; }
 
-    public String getHostId() { return hostId; }
-    public void setHostId(String hostId) { this.hostId=hostId; }
+    public int getHostId() { return hostId; }
+    public void setHostId(int hostId) { this.hostId=hostId; }
+    int allocateClientId() { return lastClientId.incrementAndGet(); }
 
     public void resetLobby() {
+        resetScheduled.set(false);
         gameStarted=false;
         gameState.reset();
         for (ClientHandler ch : clients) {
@@ -149,7 +269,7 @@ public class GameServer {
 
     public void broadcastLobbyUpdate() {
         StringBuilder sb = new StringBuilder();
-        sb.append("HOST|").append(hostId == null ? "none" : hostId).append(";PLAYERS|");
+        sb.append("HOST|").append(hostId == NO_HOST ? "none" : String.valueOf(hostId)).append(";PLAYERS|");
 
         for (ClientHandler ch : clients) {
             sb.append(ch.getClientId())
@@ -0,0 +1,151 @@
+package ru.itis.server;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Исходящая очередь одного клиента.
+ * Управляющие кадры (START_GAME, RESET_LOBBY, ...) доставляются все и по порядку,
+ * кадр состояния хранится один: новый снимок заменяет неотправленный старый.
+ * Порядок между ними общий: снимок уходит после управляющих кадров, поставленных до него, и раньше следующих.
+ * Срочные кадры (PING/PONG) обгоняют всё остальное, чтобы очередь не попадала в замер RTT.
+ * Блокировка - ReentrantLock, чтобы ожидание не закрепляло виртуальный поток за носителем.
+ */
+public class OutboundQueue {
+    private final int controlLimit;
+    private final long slowConsumerNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final ArrayDeque<byte[]> control = new ArrayDeque<>();
+    private final ArrayDeque<byte[]> urgent = new ArrayDeque<>();
+    private byte[] state;
+    // Сколько кадров из начала control должно уйти раньше state
+    private int controlBeforeState;
+    private long stateWaitingSince;
+    private boolean finished;
+
+    public OutboundQueue(ServerConfig config) {
+        this.controlLimit = config.getOutboundControlLimit();
+        this.slowConsumerNanos = TimeUnit.MILLISECONDS.toNanos(config.getSlowConsumerTimeoutMs());
+    }
+
+    /**
+     * @return false, если клиент не успевает забирать данные и его пора отключить
+     */
+    public boolean offer(byte[] frame, boolean latestWins) {
+        lock.lock();
+        try {
+            if (finished) return true;
+            if (latestWins) {
+                long now = System.nanoTime();
+                if (state == null) {
+                    stateWaitingSince = now;
+                } else if (slowConsumerNanos > 0 && now - stateWaitingSince > slowConsumerNanos) {
+                    return false;
+                }
+                state = frame;
+                controlBeforeState = control.size();
+            } else {
+                if (control.size() >= controlLimit) return false;
+                control.add(frame);
+            }
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ставит кадр перед всеми неотправленными; между собой срочные кадры идут по порядку.
+     * @return false, если клиент не успевает забирать данные и его пора отключить
+     */
+    public boolean offerUrgent(byte[] frame) {
+        lock.lock();
+        try {
+            if (finished) return true;
+            if (urgent.size() >= controlLimit) return false;
+            urgent.add(frame);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public byte[] poll() {
+        lock.lock();
+        try {
+            return next();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ждет следующий кадр. После {@link #finish()} отдает оставшиеся кадры, затем null.
+     */
+    public byte[] take() throws InterruptedException {
+        lock.lock();
+        try {
+            byte[] frame;
+            while ((frame = next()) == null) {
+                if (finished) return null;
+                notEmpty.await();
+            }
+            return frame;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return urgent.isEmpty() && control.isEmpty() && state == null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Новые кадры больше не принимаются, уже поставленные еще можно забрать.
+     */
+    public void finish() {
+        lock.lock();
+        try {
+            finished = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            finished = true;
+            urgent.clear();
+            control.clear();
+            state = null;
+            controlBeforeState = 0;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private byte[] next() {
+        if (!urgent.isEmpty()) return urgent.poll();
+        if (state != null && controlBeforeState == 0) {
+            byte[] frame = state;
+            state = null;
+            return frame;
+        }
+        if (controlBeforeState > 0) controlBeforeState--;
+        return control.poll();
+    }
+}
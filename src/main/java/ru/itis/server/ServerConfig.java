@@ -0,0 +1,69 @@
+package ru.itis.server;
+
+public class ServerConfig {
+    public enum IoMode {
+        THREAD_PER_CLIENT,
+        VIRTUAL_THREADS,
+        NIO
+    }
+
+    private IoMode ioMode = IoMode.THREAD_PER_CLIENT;
+    private int ioThreads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    private int simulationHz = 60;
+    // Снимков в секунду по умолчанию - половина частоты симуляции: клиенты интерполируют между снимками,
+    // поэтому 30 Гц хватает для плавной картинки; -Dserver.sendHz=60 возвращает снимок на каждый тик
+    private int sendHz = 30;
+    private int maxCatchUpTicks = 5;
+    private int outboundControlLimit = 256;
+    private long slowConsumerTimeoutMs = 3000;
+    private int maxRewindMs = 250;
+    private int maxViewDelayMs = 200;
+
+    public static ServerConfig fromSystemProperties() {
+        ServerConfig config = new ServerConfig();
+        String io = System.getProperty("server.io");
+        if (io != null) {
+            config.setIoMode(IoMode.valueOf(io.trim().toUpperCase()));
+        }
+        config.setIoThreads(Integer.getInteger("server.ioThreads", config.getIoThreads()));
+        config.setSimulationHz(Integer.getInteger("server.simHz", config.getSimulationHz()));
+        config.setSendHz(Integer.getInteger("server.sendHz", config.getSendHz()));
+        config.setMaxCatchUpTicks(Integer.getInteger("server.maxCatchUpTicks", config.getMaxCatchUpTicks()));
+        config.setOutboundControlLimit(Integer.getInteger("server.outboundLimit", config.getOutboundControlLimit()));
+        config.setSlowConsumerTimeoutMs(Long.getLong("server.slowConsumerMs", config.getSlowConsumerTimeoutMs()));
+        config.setMaxRewindMs(Integer.getInteger("server.maxRewindMs", config.getMaxRewindMs()));
+        config.setMaxViewDelayMs(Integer.getInteger("server.maxViewDelayMs", config.getMaxViewDelayMs()));
+        return config;
+    }
+
+    public IoMode getIoMode() { return ioMode; }
+    public void setIoMode(IoMode ioMode) { this.ioMode = ioMode; }
+
+    public int getIoThreads() { return ioThreads; }
+    public void setIoThreads(int ioThreads) { this.ioThreads = Math.max(1, ioThreads); }
+
+    public int getSimulationHz() { return simulationHz; }
+    public void setSimulationHz(int hz) { this.simulationHz = Math.max(1, hz); }
+
+    // Частота рассылки снимков не может быть выше частоты симуляции
+    public int getSendHz() { return Math.min(sendHz, simulationHz); }
+    public void setSendHz(int hz) { this.sendHz = Math.max(1, hz); }
+
+    public int getMaxCatchUpTicks() { return maxCatchUpTicks; }
+    public void setMaxCatchUpTicks(int ticks) { this.maxCatchUpTicks = Math.max(1, ticks); }
+
+    public int getOutboundControlLimit() { return outboundControlLimit; }
+    public void setOutboundControlLimit(int limit) { this.outboundControlLimit = Math.max(1, limit); }
+
+    // 0 - никогда не отключать медленных клиентов, только выбрасывать устаревшие снимки
+    public long getSlowConsumerTimeoutMs() { return slowConsumerTimeoutMs; }
+    public void setSlowConsumerTimeoutMs(long ms) { this.slowConsumerTimeoutMs = ms; }
+
+    // Насколько далеко в прошлое сервер откатывает мышей при проверке поимки; 0 - без компенсации задержки
+    public int getMaxRewindMs() { return maxRewindMs; }
+    public void setMaxRewindMs(int ms) { this.maxRewindMs = Math.max(0, ms); }
+
+    // Сколько клиент может держать отрисовку позади последнего снимка (интерполяция и кадр); сверх RTT кот дальше не откатывается
+    public int getMaxViewDelayMs() { return maxViewDelayMs; }
+    public void setMaxViewDelayMs(int ms) { this.maxViewDelayMs = Math.max(0, ms); }
+}
@@ -0,0 +1,119 @@
+package ru.itis.server;
+
+import ru.itis.protocol.Frames;
+import ru.itis.protocol.MessageCodec;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Блокирующий транспорт: один поток читает кадры из сокета, второй пишет из исходящей очереди.
+ */
+public class SocketConnection implements ClientConnection, Runnable {
+    private final Socket socket;
+    private final ClientHandler handler;
+    private final OutboundQueue outbound;
+    private volatile MessageCodec codec;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    private volatile Thread readerThread;
+    private volatile Thread writerThread;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    public SocketConnection(Socket socket, ClientHandler handler, ServerConfig config) throws IOException {
+        this.socket = socket;
+        this.handler = handler;
+        this.outbound = new OutboundQueue(config);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        socket.setTcpNoDelay(true);
+    }
+
+    public void start(Thread.Builder threads) {
+        writerThread = threads.start(this::writeLoop);
+        readerThread = threads.start(this);
+    }
+
+    @Override
+    public void run() {
+        readerThread = Thread.currentThread();
+        try {
+            codec = MessageCodec.forId(in.readUnsignedByte());
+            while (!readerThread.isInterrupted() && !closed.get()) {
+                byte[] payload = Frames.readPayload(in);
+                handler.handleMessage(codec.decode(payload, 0, payload.length));
+            }
+        } catch (IOException e) {
+            if (!closed.get()) {
+                System.out.println("[Server] Client " + handler.getClientId() + " disconnected/error: " + e.getMessage());
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            byte[] frame;
+            while ((frame = outbound.take()) != null) {
+                out.write(frame);
+                // Склеиваем все, что накопилось, в одну запись в сокет
+                if (outbound.isEmpty()) out.flush();
+            }
+            out.flush();
+        } catch (IOException e) {
+            if (!closed.get()) {
+                System.out.println("[Server] Client " + handler.getClientId() + " write error: " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            return;
+        }
+        close();
+    }
+
+    @Override
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    @Override
+    public void send(byte[] frame, boolean latestWins) {
+        if (closed.get()) return;
+        if (!outbound.offer(frame, latestWins)) {
+            System.out.println("[Server] Client " + handler.getClientId() + " is too slow, disconnecting");
+            close();
+        }
+    }
+
+    @Override
+    public void sendUrgent(byte[] frame) {
+        if (closed.get()) return;
+        if (!outbound.offerUrgent(frame)) {
+            System.out.println("[Server] Client " + handler.getClientId() + " is too slow, disconnecting");
+            close();
+        }
+    }
+
+    @Override
+    public void closeAfterFlush() {
+        outbound.finish();
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        outbound.clear();
+        Thread reader = readerThread;
+        if (reader != null) reader.interrupt();
+        Thread writer = writerThread;
+        if (writer != null && writer != Thread.currentThread()) writer.interrupt();
+        try {
+            if (!socket.isClosed()) socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        handler.onDisconnected();
+    }
+}
@@ -0,0 +1,178 @@
+package ru.itis.server.nio;
+
+import ru.itis.protocol.Frames;
+import ru.itis.protocol.Message;
+import ru.itis.protocol.MessageCodec;
+import ru.itis.server.ClientConnection;
+import ru.itis.server.ClientHandler;
+import ru.itis.server.OutboundQueue;
+import ru.itis.server.ServerConfig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class NioConnection implements ClientConnection {
+    private static final int INITIAL_READ_BUFFER = 4096;
+    private static final int WRITE_BATCH = 16;
+
+    private final SocketChannel channel;
+    private final NioWorker worker;
+    private final ClientHandler handler;
+    private volatile MessageCodec codec;
+
+    private SelectionKey key;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+    private final OutboundQueue outbound;
+    private final ByteBuffer[] batch = new ByteBuffer[WRITE_BATCH];
+    private int batchStart, batchEnd;
+    private volatile boolean closing;
+    private final AtomicBoolean writeRequested = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    NioConnection(SocketChannel channel, NioWorker worker, ClientHandler handler, ServerConfig config) throws IOException {
+        this.channel = channel;
+        this.worker = worker;
+        this.handler = handler;
+        this.outbound = new OutboundQueue(config);
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+    }
+
+    void attach(Selector selector) throws IOException {
+        if (closed.get()) return;
+        key = channel.register(selector, SelectionKey.OP_READ, this);
+        flush();
+    }
+
+    @Override
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    @Override
+    public void send(byte[] frame, boolean latestWins) {
+        if (closed.get()) return;
+        if (!outbound.offer(frame, latestWins)) {
+            System.out.println("[Server] Client " + handler.getClientId() + " is too slow, disconnecting");
+            close();
+            return;
+        }
+        requestFlush();
+    }
+
+    @Override
+    public void sendUrgent(byte[] frame) {
+        if (closed.get()) return;
+        if (!outbound.offerUrgent(frame)) {
+            System.out.println("[Server] Client " + handler.getClientId() + " is too slow, disconnecting");
+            close();
+            return;
+        }
+        requestFlush();
+    }
+
+    @Override
+    public void closeAfterFlush() {
+        closing = true;
+        outbound.finish();
+        requestFlush();
+    }
+
+    private void requestFlush() {
+        if (writeRequested.compareAndSet(false, true)) {
+            worker.requestWrite(this);
+        }
+    }
+
+    // Вызывается только из потока воркера.
+    // Кадры из очереди пишутся пачкой одним gathering write.
+    void flush() {
+        writeRequested.set(false);
+        if (key == null || !key.isValid()) return;
+        try {
+            while (true) {
+                if (batchStart == batchEnd) {
+                    batchStart = batchEnd = 0;
+                    byte[] frame;
+                    while (batchEnd < batch.length && (frame = outbound.poll()) != null) {
+                        batch[batchEnd++] = ByteBuffer.wrap(frame);
+                    }
+                    if (batchEnd == 0) {
+                        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                        if (closing) close();
+                        return;
+                    }
+                }
+                channel.write(batch, batchStart, batchEnd - batchStart);
+                while (batchStart < batchEnd && !batch[batchStart].hasRemaining()) {
+                    batch[batchStart++] = null;
+                }
+                if (batchStart < batchEnd) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("[Server] Client " + handler.getClientId() + " write error: " + e.getMessage());
+            close();
+        }
+    }
+
+    // Вызывается только из потока воркера
+    void onReadable() {
+        try {
+            int n = channel.read(readBuffer);
+            if (n < 0) {
+                close();
+                return;
+            }
+            readBuffer.flip();
+            if (codec == null && readBuffer.hasRemaining()) {
+                codec = MessageCodec.forId(readBuffer.get() & 0xFF);
+            }
+            while (codec != null && !closed.get() && readBuffer.remaining() >= Frames.HEADER_SIZE) {
+                int length = readBuffer.getInt(readBuffer.position());
+                Frames.checkLength(length);
+                if (readBuffer.remaining() < Frames.HEADER_SIZE + length) {
+                    ensureCapacity(Frames.HEADER_SIZE + length);
+                    break;
+                }
+                int offset = readBuffer.arrayOffset() + readBuffer.position() + Frames.HEADER_SIZE;
+                Message msg = codec.decode(readBuffer.array(), offset, length);
+                readBuffer.position(readBuffer.position() + Frames.HEADER_SIZE + length);
+                handler.handleMessage(msg);
+            }
+            if (!closed.get()) {
+                readBuffer.compact();
+            }
+        } catch (IOException e) {
+            System.out.println("[Server] Client " + handler.getClientId() + " disconnected/error: " + e.getMessage());
+            close();
+        }
+    }
+
+    private void ensureCapacity(int frameSize) {
+        if (readBuffer.capacity() >= frameSize) return;
+        ByteBuffer bigger = ByteBuffer.allocate(Integer.highestOneBit(frameSize - 1) << 1);
+        bigger.put(readBuffer);
+        bigger.flip();
+        readBuffer = bigger;
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        if (key != null) key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        outbound.clear();
+        handler.onDisconnected();
+    }
+}
@@ -0,0 +1,49 @@
+package ru.itis.server.nio;
+
+import ru.itis.server.ClientHandler;
+import ru.itis.server.ServerConfig;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Небольшой фиксированный пул I/O потоков, каждый со своим Selector.
+ * Принятые каналы раздаются воркерам по кругу.
+ */
+public class NioServer {
+    private final NioWorker[] workers;
+    private final ServerConfig config;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public NioServer(ServerConfig config) throws IOException {
+        this.config = config;
+        int ioThreads = config.getIoThreads();
+        workers = new NioWorker[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            workers[i] = new NioWorker();
+        }
+    }
+
+    public void start() {
+        for (int i = 0; i < workers.length; i++) {
+            Thread t = new Thread(workers[i], "nio-io-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    public NioConnection register(SocketChannel channel, ClientHandler handler) throws IOException {
+        NioWorker worker = workers[Math.floorMod(next.getAndIncrement(), workers.length)];
+        NioConnection connection = new NioConnection(channel, worker, handler, config);
+        handler.setConnection(connection);
+        worker.register(connection);
+        return connection;
+    }
+
+    public void stop() {
+        for (NioWorker worker : workers) {
+            worker.stop();
+        }
+    }
+}